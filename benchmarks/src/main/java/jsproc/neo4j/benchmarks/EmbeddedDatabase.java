@@ -0,0 +1,94 @@
+package jsproc.neo4j.benchmarks;
+
+import jsproc.neo4j.StoredProcedureAPI;
+import jsproc.neo4j.StoredProcedureEngine;
+import org.neo4j.dbms.api.DatabaseManagementService;
+import org.neo4j.dbms.api.DatabaseManagementServiceBuilder;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.io.fs.FileUtils;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.logging.NullLog;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.neo4j.configuration.GraphDatabaseSettings.DEFAULT_DATABASE_NAME;
+
+/**
+ * Embedded database with the stored procedure engine loaded, shared by the benchmarks.
+ */
+final class EmbeddedDatabase implements AutoCloseable {
+
+    final GraphDatabaseAPI db;
+    final StoredProcedureEngine engine;
+    private final DatabaseManagementService managementService;
+    private final Path directory;
+
+    EmbeddedDatabase() throws IOException {
+        engine = StoredProcedureEngine.getStoredProcedureEngine(NullLog.getInstance());
+        directory = Files.createTempDirectory("js-stored-procs-benchmarks");
+        managementService = new DatabaseManagementServiceBuilder(directory).build();
+        db = (GraphDatabaseAPI) managementService.database(DEFAULT_DATABASE_NAME);
+        engine.loadStoredProcedures(db);
+    }
+
+    /**
+     * Registers a script through js.procedure.register and commits it.
+     */
+    void register(String publicName, String script) {
+        register(publicName, script, Collections.emptyMap());
+    }
+
+    void register(String publicName, String script, Map<String, Object> config) {
+        try (Transaction tx = db.beginTx()) {
+            StoredProcedureAPI api = api(tx);
+            String message = api.registerStoredProcedure(script, publicName, config).findFirst().orElseThrow().message;
+            if (!"Success".equals(message) && !"No Change".equals(message)) {
+                throw new IllegalStateException("Could not register " + publicName + ": " + message);
+            }
+            tx.commit();
+        }
+    }
+
+    StoredProcedureAPI api(Transaction tx) {
+        StoredProcedureAPI api = new StoredProcedureAPI();
+        api.txn = tx;
+        api.db = db;
+        api.log = NullLog.getInstance();
+        return api;
+    }
+
+    /**
+     * Writes procedure nodes directly, bypassing registration. The salt is part of every script and
+     * checksum, so a new salt makes all scripts unknown to the compiled script cache.
+     */
+    void writeProcedureNodes(int count, String salt) {
+        try (Transaction tx = db.beginTx()) {
+            for (int i = 0; i < count; i++) {
+                String publicName = "bench" + i;
+                Node n = tx.findNode(StoredProcedureEngine.JS_StoredProcedure, StoredProcedureEngine.PublicName, publicName);
+                if (n == null) {
+                    n = tx.createNode(StoredProcedureEngine.JS_StoredProcedure);
+                    n.setProperty(StoredProcedureEngine.PublicName, publicName);
+                    n.setProperty(StoredProcedureEngine.FunctionName, "bench" + i);
+                }
+                n.setProperty(StoredProcedureEngine.Script, "function bench" + i + "(params) { // " + salt + "\n" +
+                        "  var sum = 0; for (var j = 0; j < params['n']; j++) { sum += j * " + i + "; } return sum; }");
+                n.setProperty(StoredProcedureEngine.CheckSum, salt + "-" + i);
+                n.setProperty(StoredProcedureEngine.LastUpdatedime, ZonedDateTime.now());
+            }
+            tx.commit();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        managementService.shutdown();
+        FileUtils.deleteDirectory(directory);
+    }
+}
@@ -0,0 +1,61 @@
+package jsproc.neo4j.benchmarks;
+
+import jsproc.neo4j.ScriptDetails;
+import org.neo4j.graphdb.Transaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of resolving a procedure name to a borrowed, up to date engine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class EngineLookupBenchmark {
+
+    private EmbeddedDatabase database;
+
+    @Setup
+    public void setUp() throws IOException {
+        database = new EmbeddedDatabase();
+        database.register("trivial", "function trivial(params) { return 1; }");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        database.close();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadTransaction {
+        Transaction tx;
+
+        @Setup(Level.Iteration)
+        public void begin(EngineLookupBenchmark benchmark) {
+            tx = benchmark.database.db.beginTx();
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() {
+            tx.close();
+        }
+    }
+
+    @Benchmark
+    public ScriptDetails getEngine(ThreadTransaction transaction) {
+        ScriptDetails details = database.engine.getEngine(database.db, transaction.tx, "trivial");
+        details.release();
+        return details;
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public ScriptDetails getEngineContended(ThreadTransaction transaction) {
+        return getEngine(transaction);
+    }
+}
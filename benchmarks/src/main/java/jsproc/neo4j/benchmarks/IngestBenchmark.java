@@ -0,0 +1,83 @@
+package jsproc.neo4j.benchmarks;
+
+import jsproc.neo4j.ScriptDetails;
+import org.neo4j.graphdb.Transaction;
+import org.openjdk.jmh.annotations.*;
+
+import javax.script.ScriptException;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Node ingest from a script, one Core API call per node and property against the bulk {@code graph} helper.
+ * The transactions are rolled back so every iteration writes into the same store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class IngestBenchmark {
+
+    private static final String CORE_API = "" +
+            "function ingestCore(params) {" +
+            "  var label = Label.label('Bench');" +
+            "  for (var i = 0; i < params['n']; i++) {" +
+            "    var node = params['txn'].createNode(label);" +
+            "    node.setProperty('id', i);" +
+            "    node.setProperty('name', 'node' + i);" +
+            "  }" +
+            "  return params['n'];" +
+            "}";
+
+    private static final String BULK = "" +
+            "function ingestBulk(params) {" +
+            "  var rows = [];" +
+            "  for (var i = 0; i < params['n']; i++) { rows.push({ id: i, name: 'node' + i }); }" +
+            "  return graph.createNodes('Bench', rows).length;" +
+            "}";
+
+    @Param({"10000"})
+    public int nodes;
+
+    private EmbeddedDatabase database;
+
+    @Setup
+    public void setUp() throws IOException {
+        database = new EmbeddedDatabase();
+        database.register("ingestCore", CORE_API);
+        database.register("ingestBulk", BULK);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        database.close();
+    }
+
+    @Benchmark
+    public Object coreApi() throws ScriptException, NoSuchMethodException {
+        return ingest("ingestCore");
+    }
+
+    @Benchmark
+    public Object bulk() throws ScriptException, NoSuchMethodException {
+        return ingest("ingestBulk");
+    }
+
+    private Object ingest(String procedure) throws ScriptException, NoSuchMethodException {
+        try (Transaction tx = database.db.beginTx()) {
+            ScriptDetails details = database.engine.getEngine(database.db, tx, procedure);
+            try {
+                Map<String, Object> parameters = new HashMap<>();
+                parameters.put("n", nodes);
+                parameters.put("txn", tx);
+                return details.invoke(parameters);
+            } finally {
+                details.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package jsproc.neo4j.benchmarks;
+
+import jsproc.neo4j.EngineProfile;
+import jsproc.neo4j.ScriptBackends;
+import jsproc.neo4j.ScriptDetails;
+import org.neo4j.graphdb.Transaction;
+import org.openjdk.jmh.annotations.*;
+
+import javax.script.Invocable;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Invocation overhead of a trivial and a compute heavy script, called directly through
+ * {@link Invocable#invokeFunction} and through the pooled stored procedure engine of a backend.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class InvocationBenchmark {
+
+    private static final Map<String, String> SCRIPTS = Map.of(
+            "trivial", "function trivial(params) { return params['n']; }",
+            "compute", "function compute(params) { var sum = 0; for (var i = 0; i < params['n']; i++) { sum += Math.sqrt(i); } return sum; }");
+
+    @Param({"trivial", "compute"})
+    public String script;
+
+    @Param({"nashorn", "graaljs"})
+    public String backend;
+
+    private EmbeddedDatabase database;
+    private Invocable invocable;
+    private final Map<String, Object> parameters = new HashMap<>();
+
+    @Setup
+    public void setUp() throws IOException, ScriptException {
+        database = new EmbeddedDatabase();
+        database.register(script, SCRIPTS.get(script), Map.of("backend", backend));
+
+        ScriptEngine engine = ScriptBackends.of(backend).newEngine(EngineProfile.DEFAULT, null);
+        engine.eval(SCRIPTS.get(script));
+        invocable = (Invocable) engine;
+        parameters.put("n", 10_000);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        database.close();
+    }
+
+    @Benchmark
+    public Object invokeFunction() throws ScriptException, NoSuchMethodException {
+        return invocable.invokeFunction(script, parameters);
+    }
+
+    @Benchmark
+    public Object invokeStoredProcedure() throws ScriptException, NoSuchMethodException {
+        try (Transaction tx = database.db.beginTx()) {
+            ScriptDetails details = database.engine.getEngine(database.db, tx, script);
+            try {
+                return details.invoke(parameters);
+            } finally {
+                details.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package jsproc.neo4j.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold start: loading all stored procedures of a database. Every iteration rewrites the scripts
+ * with a new salt, so nothing is served from the compiled script cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+public class LoadBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int procedures;
+
+    private EmbeddedDatabase database;
+    private int iteration = 0;
+
+    @Setup
+    public void setUp() throws IOException {
+        database = new EmbeddedDatabase();
+    }
+
+    @Setup(Level.Iteration)
+    public void rewriteScripts() {
+        database.writeProcedureNodes(procedures, "iteration-" + iteration++);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        database.close();
+    }
+
+    @Benchmark
+    public void loadStoredProcedures() {
+        database.engine.loadStoredProcedures(database.db);
+    }
+}
@@ -0,0 +1,83 @@
+package jsproc.neo4j.benchmarks;
+
+import jsproc.neo4j.BulkRegisterResult;
+import jsproc.neo4j.RegisterResult;
+import jsproc.neo4j.StoredProcedureAPI;
+import org.neo4j.graphdb.Transaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Cost of js.procedure.register: parsing, the Java.type check, hashing and writing the node. Scripts are compiled
+ * in the background once the registering transaction commits, every registration here is rolled back, so each
+ * one takes the full path for a new procedure and none of them compiles.
+ * {@code registerEach} and {@code registerAll} write a deploy of {@link #DEPLOY} scripts one by one and in bulk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RegistrationBenchmark {
+
+    private static final int DEPLOY = 100;
+
+    @Param({"1", "100"})
+    public int statements;
+
+    private EmbeddedDatabase database;
+    private String script;
+    private final List<Map<String, Object>> deploy = new ArrayList<>();
+
+    @Setup
+    public void setUp() throws IOException {
+        database = new EmbeddedDatabase();
+        StringBuilder body = new StringBuilder("function registered(params) {\n  var sum = 0;\n");
+        for (int i = 0; i < statements; i++) {
+            body.append("  sum += params['value'] * ").append(i).append(";\n");
+        }
+        script = body.append("  return sum;\n}").toString();
+        for (int i = 0; i < DEPLOY; i++) {
+            deploy.add(Map.of("script", script.replace("registered", "deployed" + i), "publicName", "deployed" + i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        database.close();
+    }
+
+    @Benchmark
+    public RegisterResult register() {
+        try (Transaction tx = database.db.beginTx()) {
+            return database.api(tx).registerStoredProcedure(script, "registered", Collections.emptyMap()).findFirst().orElseThrow();
+        }
+    }
+
+    @Benchmark
+    public List<RegisterResult> registerEach() {
+        try (Transaction tx = database.db.beginTx()) {
+            StoredProcedureAPI api = database.api(tx);
+            List<RegisterResult> results = new ArrayList<>(DEPLOY);
+            for (Map<String, Object> entry : deploy) {
+                results.add(api.registerStoredProcedure((String) entry.get("script"), (String) entry.get("publicName"), Collections.emptyMap()).findFirst().orElseThrow());
+            }
+            return results;
+        }
+    }
+
+    @Benchmark
+    public List<BulkRegisterResult> registerAll() {
+        try (Transaction tx = database.db.beginTx()) {
+            return database.api(tx).registerAllStoredProcedures(deploy).collect(Collectors.toList());
+        }
+    }
+}
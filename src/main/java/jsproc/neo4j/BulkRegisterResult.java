@@ -0,0 +1,13 @@
+package jsproc.neo4j;
+
+public class BulkRegisterResult {
+
+    public final String publicName;
+    public final String message;
+
+    public BulkRegisterResult(String publicName, String message) {
+        this.publicName = publicName;
+        this.message = message;
+    }
+
+}
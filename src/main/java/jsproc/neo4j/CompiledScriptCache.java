@@ -0,0 +1,91 @@
+package jsproc.neo4j;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiles scripts once per checksum. Compiled scripts belong to the shared engine and can be
+ * evaluated into any global of that engine, so they are reused across pooled engines, databases and reloads.
+ * Every resident script of a registry holds a reference on its compiled script, which is dropped once no
+ * registry holds one any more. Stored scripts are instrumented by their backend before they are compiled, see {@link ScriptBackend#instrument(String)}.
+ */
+public class CompiledScriptCache {
+
+    private final ScriptEngine engine;
+    private final ScriptBackend backend;
+    private final Map<String, CompiledScript> compiledScripts = new ConcurrentHashMap<>();
+    // The registries holding each compiled script and how many of their resident scripts use it.
+    private final Map<String, Map<Object, Integer>> references = new ConcurrentHashMap<>();
+
+    public CompiledScriptCache(ScriptEngine engine, ScriptBackend backend) {
+        this.engine = engine;
+        this.backend = backend;
+    }
+
+    public ScriptEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * @param owner the registry the script becomes resident in, it holds a reference until {@link #release}
+     */
+    public CompiledScript acquire(Object owner, String checkSum, String script) throws ScriptException {
+        if (checkSum == null) {
+            return compile(script);
+        }
+        CompiledScript compiled = compiledScripts.get(checkSum);
+        if (compiled == null) {
+            compiled = compile(backend.instrument(script));
+        }
+        CompiledScript[] acquired = {compiled};
+        references.compute(checkSum, (key, owners) -> {
+            CompiledScript existing = compiledScripts.putIfAbsent(key, acquired[0]);
+            if (existing != null) {
+                acquired[0] = existing;
+            }
+            Map<Object, Integer> updated = owners == null ? new HashMap<>() : owners;
+            updated.merge(owner, 1, Integer::sum);
+            return updated;
+        });
+        return acquired[0];
+    }
+
+    /**
+     * Drops a reference of {@link #acquire}, the compiled script is dropped with its last reference.
+     */
+    public void release(Object owner, String checkSum) {
+        if (checkSum == null) {
+            return;
+        }
+        references.computeIfPresent(checkSum, (key, owners) -> {
+            owners.computeIfPresent(owner, (registry, count) -> count > 1 ? count - 1 : null);
+            if (owners.isEmpty()) {
+                compiledScripts.remove(key);
+                return null;
+            }
+            return owners;
+        });
+    }
+
+    private CompiledScript compile(String script) throws ScriptException {
+        if (backend.compilesConcurrently()) {
+            return ((Compilable) engine).compile(script);
+        }
+        synchronized (engine) {
+            return ((Compilable) engine).compile(script);
+        }
+    }
+
+    public boolean contains(String checkSum) {
+        return checkSum != null && compiledScripts.containsKey(checkSum);
+    }
+
+    public int size() {
+        return compiledScripts.size();
+    }
+}
@@ -0,0 +1,179 @@
+package jsproc.neo4j;
+
+import org.neo4j.graphdb.QueryStatistics;
+import org.neo4j.graphdb.Result;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Supplier;
+
+/**
+ * Bound as {@code cypher} into the globals of every pooled engine, runs on the transaction of the invocation that
+ * borrowed the engine, see {@link HelperScope}.
+ * Values must be passed as parameters so that the query plan is cached, see {@link PreparedQueries}.
+ * Rows are pulled from the result only as the script iterates them. Results the script doesn't exhaust are
+ * closed when the invocation ends.
+ * <pre>
+ * for each (var row in cypher.execute('MATCH (p:Person {name: $name}) RETURN p.age AS age', {name: params.name})) { ... }
+ * cypher.executeMany('MERGE (:Tag {name: $name})', [{name: 'a'}, {name: 'b'}])
+ * </pre>
+ */
+public class CypherHelper {
+
+    private final Supplier<HelperScope> scopes;
+
+    /**
+     * @param scopes the scope of the invocation the helper is called from
+     */
+    public CypherHelper(Supplier<HelperScope> scopes) {
+        this.scopes = scopes;
+    }
+
+    public Rows execute(String query) {
+        return execute(query, null);
+    }
+
+    public Rows execute(String query, Map<String, Object> params) {
+        HelperScope scope = scopes.get().checkOpen();
+        scope.getQueries().prepare(query);
+        Rows rows = new Rows(run(scope, query, params), scope.getMetrics(), scope.getProfile());
+        scope.opened(rows);
+        return rows;
+    }
+
+    /**
+     * @return the first row, or null if there is none
+     */
+    public Map<String, Object> single(String query, Map<String, Object> params) {
+        try (Rows rows = execute(query, params)) {
+            return rows.hasNext() ? rows.next() : null;
+        }
+    }
+
+    /**
+     * Runs the query once per parameter map and discards the rows.
+     *
+     * @return the number of executions and rows and the summed update counters
+     */
+    public Map<String, Object> executeMany(String query, List<Map<String, Object>> paramsList) {
+        HelperScope scope = scopes.get().checkOpen();
+        InvocationProfile profile = scope.getProfile();
+        scope.getQueries().prepare(query);
+        long rows = 0;
+        long nodesCreated = 0, nodesDeleted = 0, relationshipsCreated = 0, relationshipsDeleted = 0, propertiesSet = 0, labelsAdded = 0;
+        for (Map<String, Object> params : paramsList) {
+            try (Result result = run(scope, query, params)) {
+                long pulling = System.nanoTime();
+                long count = 0;
+                while (result.hasNext()) {
+                    result.next();
+                    count++;
+                }
+                rows += count;
+                if (profile != null) {
+                    profile.dbPull(System.nanoTime() - pulling, count);
+                }
+                QueryStatistics statistics = result.getQueryStatistics();
+                nodesCreated += statistics.getNodesCreated();
+                nodesDeleted += statistics.getNodesDeleted();
+                relationshipsCreated += statistics.getRelationshipsCreated();
+                relationshipsDeleted += statistics.getRelationshipsDeleted();
+                propertiesSet += statistics.getPropertiesSet();
+                labelsAdded += statistics.getLabelsAdded();
+            }
+        }
+        scope.getMetrics().recordQueryRows(rows);
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("executions", paramsList.size());
+        summary.put("rows", rows);
+        summary.put("nodesCreated", nodesCreated);
+        summary.put("nodesDeleted", nodesDeleted);
+        summary.put("relationshipsCreated", relationshipsCreated);
+        summary.put("relationshipsDeleted", relationshipsDeleted);
+        summary.put("propertiesSet", propertiesSet);
+        summary.put("labelsAdded", labelsAdded);
+        return summary;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Result run(HelperScope scope, String query, Map<String, Object> params) {
+        Map<String, Object> parameters = params == null ? Collections.emptyMap() : (Map<String, Object>) scope.getBackend().toJava(params);
+        long start = System.nanoTime();
+        try {
+            return scope.getTx().execute(query, parameters);
+        } finally {
+            long nanos = System.nanoTime() - start;
+            scope.getMetrics().recordQuery(nanos);
+            if (scope.getProfile() != null) {
+                scope.getProfile().dbCall(nanos);
+            }
+        }
+    }
+
+    /**
+     * Rows of one query. Iterable from JS with {@code for each}, or with {@code hasNext()}/{@code next()}.
+     */
+    public static class Rows implements Iterator<Map<String, Object>>, Iterable<Map<String, Object>>, AutoCloseable {
+
+        private final Result result;
+        private final ProcedureMetrics metrics;
+        private final InvocationProfile profile;
+        private long count = 0;
+        private boolean closed = false;
+
+        private Rows(Result result, ProcedureMetrics metrics, InvocationProfile profile) {
+            this.result = result;
+            this.metrics = metrics;
+            this.profile = profile;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (closed) {
+                return false;
+            }
+            if (profile == null ? result.hasNext() : pull()) {
+                return true;
+            }
+            close();
+            return false;
+        }
+
+        private boolean pull() {
+            long start = System.nanoTime();
+            boolean hasNext = result.hasNext();
+            profile.dbPull(System.nanoTime() - start, 0);
+            return hasNext;
+        }
+
+        @Override
+        public Map<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            count++;
+            return result.next();
+        }
+
+        @Override
+        public Iterator<Map<String, Object>> iterator() {
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                result.close();
+                metrics.recordQueryRows(count);
+                if (profile != null) {
+                    profile.dbPull(0, count);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package jsproc.neo4j;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Nashorn option sets a script can be compiled with, selected with e.g. {profile: 'throughput'} in the register config.
+ * Every profile has its own shared engine, compiled scripts and globals.
+ */
+public enum EngineProfile {
+    /**
+     * Nashorn's defaults: functions are compiled on their first call with conservative types. Compiles fastest.
+     */
+    DEFAULT(),
+    /**
+     * Optimistic types: numeric code runs several times faster once warm, but compiles slower and is recompiled
+     * whenever a type guess turns out wrong while warming up.
+     */
+    THROUGHPUT("--optimistic-types=true"),
+    /**
+     * All functions are compiled with the script, so the first invocation doesn't compile.
+     */
+    EAGER("--lazy-compilation=false"),
+    /**
+     * Scripts run in strict mode.
+     */
+    STRICT("-strict");
+
+    private final String[] options;
+
+    EngineProfile(String... options) {
+        // -doe is the default option of an engine looked up by name.
+        this.options = new String[options.length + 1];
+        this.options[0] = "-doe";
+        System.arraycopy(options, 0, this.options, 1, options.length);
+    }
+
+    public String[] getOptions() {
+        return options.clone();
+    }
+
+    public String getName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    public static EngineProfile of(Map<String, Object> config) {
+        Object profile = config == null ? null : config.get(StoredProcedureEngine.Profile);
+        return profile == null ? DEFAULT : of(profile.toString());
+    }
+
+    public static EngineProfile of(String name) {
+        for (EngineProfile profile : values()) {
+            if (profile.getName().equalsIgnoreCase(name)) {
+                return profile;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Unknown profile '%s', expected one of %s", name,
+                Arrays.stream(values()).map(EngineProfile::getName).collect(Collectors.joining(", "))));
+    }
+}
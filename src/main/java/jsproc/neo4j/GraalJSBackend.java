@@ -0,0 +1,360 @@
+package jsproc.neo4j;
+
+import com.oracle.js.parser.ErrorManager;
+import com.oracle.js.parser.Parser;
+import com.oracle.js.parser.ParserException;
+import com.oracle.js.parser.ScriptEnvironment;
+import com.oracle.js.parser.Source;
+import com.oracle.js.parser.ir.AccessNode;
+import com.oracle.js.parser.ir.CallNode;
+import com.oracle.js.parser.ir.FunctionNode;
+import com.oracle.js.parser.ir.IdentNode;
+import com.oracle.js.parser.ir.LexicalContext;
+import com.oracle.js.parser.ir.LiteralNode;
+import com.oracle.js.parser.ir.Statement;
+import com.oracle.js.parser.ir.VarNode;
+import com.oracle.js.parser.ir.visitor.NodeVisitor;
+import com.oracle.truffle.js.runtime.JSConfig;
+import com.oracle.truffle.js.scriptengine.GraalJSScriptEngine;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
+import org.graalvm.polyglot.HostAccess;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.SourceSection;
+import org.graalvm.polyglot.Value;
+import org.neo4j.annotations.service.ServiceProvider;
+
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * GraalJS, available when its jars are installed next to the plugin. All globals are contexts of one polyglot
+ * engine, so a script is parsed once and its code is shared by every pooled engine. On a stock JVM GraalJS runs
+ * in its interpreter; it only compiles scripts when the JVM runs with the Graal compiler.
+ * Scripts are parsed as ES6 and results are converted to Java before they leave the context.
+ * <p>
+ * Scripts are validated with the GraalJS parser, the Nashorn tree API can't read all of ES6. They are not instrumented
+ * by the {@link InvocationGuard}; a watchdog interrupts the context of a guarded invocation once it is aborted, also
+ * while the rows of a returned iterator are pulled.
+ */
+@ServiceProvider
+public class GraalJSBackend implements ScriptBackend {
+
+    public static final String NAME = "graaljs";
+    private static final long WATCH_INTERVAL_MILLIS = 50;
+
+    private static final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "js-procedure-graaljs-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile Engine engine;
+    // Looks up the contexts of globals, see #context.
+    private volatile GraalJSScriptEngine contexts;
+
+    public GraalJSBackend() throws ClassNotFoundException {
+        // Fails the service lookup when GraalJS isn't installed.
+        Class.forName("com.oracle.truffle.js.scriptengine.GraalJSScriptEngine", false, GraalJSBackend.class.getClassLoader());
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public ScriptOutline outline(String name, String script) {
+        FunctionNode program;
+        try {
+            ScriptEnvironment environment = ScriptEnvironment.builder().ecmaScriptVersion(JSConfig.LatestECMAScriptVersion).build();
+            program = new Parser(environment, Source.sourceFor(name, script), new ErrorManager.ThrowErrorManager()).parse();
+        } catch (ParserException e) {
+            return ScriptOutline.failed(e.getMessage());
+        }
+        List<String> javaTypes = new ArrayList<>();
+        program.accept(new NodeVisitor<>(new LexicalContext()) {
+            @Override
+            public boolean enterCallNode(CallNode node) {
+                if (node.getFunction() instanceof AccessNode
+                        && "type".equals(((AccessNode) node.getFunction()).getProperty())
+                        && ((AccessNode) node.getFunction()).getBase() instanceof IdentNode
+                        && "Java".equals(((IdentNode) ((AccessNode) node.getFunction()).getBase()).getName())
+                        && !node.getArgs().isEmpty()
+                        && node.getArgs().get(0) instanceof LiteralNode
+                        && ((LiteralNode<?>) node.getArgs().get(0)).isString()) {
+                    javaTypes.add(((LiteralNode<?>) node.getArgs().get(0)).getValue().toString());
+                }
+                return true;
+            }
+        });
+        List<Statement> statements = program.getBody().getStatements();
+        if (statements.size() != 1 || !(statements.get(0) instanceof VarNode) || !((VarNode) statements.get(0)).isFunctionDeclaration()) {
+            return new ScriptOutline(null, 0, javaTypes);
+        }
+        FunctionNode function = (FunctionNode) ((VarNode) statements.get(0)).getInit();
+        return new ScriptOutline(function.getName(), function.getNumOfParams(), javaTypes);
+    }
+
+    @Override
+    public String instrument(String script) {
+        return script;
+    }
+
+    @Override
+    public ScriptEngine newEngine(EngineProfile profile, PersistentCodeCache codeCache) {
+        Context.Builder contextConfig = Context.newBuilder("js")
+                .allowHostAccess(HostAccess.ALL)
+                .allowHostClassLookup(ScriptClassFilter.FILTER::exposeToScripts)
+                .option("js.strict", String.valueOf(profile == EngineProfile.STRICT));
+        return GraalJSScriptEngine.create(polyglotEngine(), contextConfig);
+    }
+
+    private Engine polyglotEngine() {
+        Engine polyglot = engine;
+        if (polyglot == null) {
+            synchronized (this) {
+                polyglot = engine;
+                if (polyglot == null) {
+                    polyglot = Engine.newBuilder().option("engine.WarnInterpreterOnly", "false").build();
+                    engine = polyglot;
+                }
+            }
+        }
+        return polyglot;
+    }
+
+    @Override
+    public Object call(ScriptContext global, String functionName, Object... args) throws ScriptException, NoSuchMethodException {
+        // The bindings hand out guest values wrapped for Java, unwrapping gives back the function of the global.
+        Object member = global.getBindings(ScriptContext.ENGINE_SCOPE).get(functionName);
+        Value function = member == null ? null : Value.asValue(member);
+        if (function == null || !function.canExecute()) {
+            throw new NoSuchMethodException("No such function " + functionName);
+        }
+        try {
+            Context context = context(global);
+            return guarded(context, () -> toJava(function.execute(args), context));
+        } catch (PolyglotException e) {
+            throw scriptException(e);
+        }
+    }
+
+    /**
+     * The context of a global as it was created. Only the creator of a context can interrupt it, not the context
+     * handed out by its values. The context belongs to the bindings of the global, any engine looks it up.
+     */
+    private Context context(ScriptContext global) {
+        GraalJSScriptEngine lookup = contexts;
+        if (lookup == null) {
+            synchronized (this) {
+                lookup = contexts;
+                if (lookup == null) {
+                    lookup = GraalJSScriptEngine.create(polyglotEngine(), Context.newBuilder("js"));
+                    contexts = lookup;
+                }
+            }
+        }
+        return lookup.getPolyglotContext(global);
+    }
+
+    /**
+     * Runs guest code under the watchdog of the invocation guarded on the current thread, the abort of the invocation
+     * and host exceptions are rethrown as they are.
+     */
+    private static <T> T guarded(Context context, Supplier<T> guest) {
+        InvocationGuard.Invocation invocation = InvocationGuard.current();
+        ScheduledFuture<?> watch = invocation == null || context == null ? null
+                : watchdog.scheduleWithFixedDelay(() -> interruptIfAborted(context, invocation),
+                WATCH_INTERVAL_MILLIS, WATCH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        try {
+            return guest.get();
+        } catch (PolyglotException e) {
+            if (e.isInterrupted() && invocation != null && invocation.isAborted()) {
+                throw invocation.abortException();
+            }
+            RuntimeException host = hostException(e);
+            if (host != null) {
+                throw host;
+            }
+            throw e;
+        } finally {
+            if (watch != null) {
+                watch.cancel(false);
+            }
+        }
+    }
+
+    @Override
+    public boolean compilesConcurrently() {
+        // Scripts are parsed in the default context of the engine, which is entered by one thread at a time.
+        return false;
+    }
+
+    @Override
+    public Object toJava(Object value) {
+        // Objects and arrays reach the helpers as Java maps and lists that wrap the guest values.
+        Value guest = value == null ? null : Value.asValue(value);
+        return guest == null || guest.isHostObject() ? ScriptValueConverter.toJava(value) : toJava(guest, null);
+    }
+
+    @Override
+    public String functionSource(Object function) {
+        Value value = function == null || function instanceof String ? null : Value.asValue(function);
+        if (value == null || !value.canExecute() || value.isHostObject()) {
+            return null;
+        }
+        return value.invokeMember("toString").asString();
+    }
+
+    private static void interruptIfAborted(Context context, InvocationGuard.Invocation invocation) {
+        if (invocation.isAborted()) {
+            try {
+                context.interrupt(Duration.ofMillis(WATCH_INTERVAL_MILLIS));
+            } catch (TimeoutException e) {
+                // Still running, tried again on the next run of the watchdog.
+            }
+        }
+    }
+
+    /**
+     * @return the Java exception thrown through the script, e.g. the abort of the {@link InvocationGuard}
+     */
+    private static RuntimeException hostException(PolyglotException e) {
+        if (e.isHostException() && e.asHostException() instanceof RuntimeException) {
+            return (RuntimeException) e.asHostException();
+        }
+        return null;
+    }
+
+    private static ScriptException scriptException(PolyglotException e) {
+        SourceSection location = e.getSourceLocation();
+        ScriptException se = location == null ? new ScriptException(e.getMessage())
+                : new ScriptException(e.getMessage(), location.getSource().getName(), location.getStartLine(), location.getStartColumn());
+        se.initCause(e);
+        return se;
+    }
+
+    /**
+     * Values must not be used outside of their context, so objects and arrays are copied into maps and lists, or
+     * into {@code long[]}/{@code double[]} when all elements are numbers, as with Nashorn. JS iterators become Java
+     * iterators that are pulled while the engine is borrowed.
+     *
+     * @param context the context of the value as created, null if the pulls of an iterator aren't watched
+     */
+    static Object toJava(Value value, Context context) {
+        if (value == null || value.isNull()) {
+            return null;
+        } else if (value.isHostObject()) {
+            return value.asHostObject();
+        } else if (value.isBoolean()) {
+            return value.asBoolean();
+        } else if (value.isString()) {
+            return value.asString();
+        } else if (value.isNumber()) {
+            return value.fitsInInt() ? (Object) value.asInt() : value.fitsInLong() ? (Object) value.asLong() : (Object) value.asDouble();
+        } else if (value.isInstant()) {
+            return ZonedDateTime.ofInstant(value.asInstant(), ZoneOffset.UTC);
+        } else if (value.hasArrayElements()) {
+            Object numbers = numericArray(value);
+            if (numbers != null) {
+                return numbers;
+            }
+            List<Object> list = new ArrayList<>((int) value.getArraySize());
+            for (long i = 0; i < value.getArraySize(); i++) {
+                list.add(toJava(value.getArrayElement(i), context));
+            }
+            return list;
+        } else if (value.canExecute()) {
+            return value.toString();
+        } else if (value.hasMember("next") && value.getMember("next").canExecute()) {
+            return iterator(value, context);
+        } else if (value.hasMembers()) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (String key : value.getMemberKeys()) {
+                map.put(key, toJava(value.getMember(key), context));
+            }
+            return map;
+        }
+        return value.as(Object.class);
+    }
+
+    /**
+     * @return a {@code long[]} if all elements are integers, a {@code double[]} if all are numbers, otherwise null
+     */
+    private static Object numericArray(Value array) {
+        int size = (int) array.getArraySize();
+        if (size == 0) {
+            return null;
+        }
+        boolean integral = true;
+        for (int i = 0; i < size; i++) {
+            Value element = array.getArrayElement(i);
+            if (!element.isNumber()) {
+                return null;
+            }
+            integral &= element.fitsInLong();
+        }
+        if (integral) {
+            long[] longs = new long[size];
+            for (int i = 0; i < size; i++) {
+                longs[i] = array.getArrayElement(i).asLong();
+            }
+            return longs;
+        }
+        double[] doubles = new double[size];
+        for (int i = 0; i < size; i++) {
+            doubles[i] = array.getArrayElement(i).asDouble();
+        }
+        return doubles;
+    }
+
+    private static Iterator<Object> iterator(Value iterator, Context context) {
+        return new Iterator<>() {
+            private Value step;
+
+            @Override
+            public boolean hasNext() {
+                if (step == null) {
+                    try {
+                        // Pulled after the invocation returned, under the invocation the caller guards the pull with.
+                        step = guarded(context, () -> iterator.invokeMember("next"));
+                    } catch (PolyglotException e) {
+                        throw new RuntimeException(e.getMessage(), e);
+                    }
+                }
+                if (!step.hasMembers()) {
+                    return false;
+                }
+                Value done = step.getMember("done");
+                return done == null || !done.isBoolean() || !done.asBoolean();
+            }
+
+            @Override
+            public Object next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Object value = toJava(step.getMember("value"), context);
+                step = null;
+                return value;
+            }
+        };
+    }
+}
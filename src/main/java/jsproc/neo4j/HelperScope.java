@@ -0,0 +1,105 @@
+package jsproc.neo4j;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What the {@code cypher}, {@code graph} and {@code parallel} helpers of a pooled engine work on. The helpers are
+ * bound into the globals of the engine once, when a global is created; an invocation opens the scope of the engine
+ * it borrowed on its transaction and closes it when it is done.
+ */
+public class HelperScope {
+
+    private GraphDatabaseService db;
+    private Transaction tx;
+    private PreparedQueries queries;
+    private ProcedureMetrics metrics;
+    private String name;
+    private String publicName;
+    private ScriptBackend backend;
+    private InvocationProfile profile;
+    private final List<CypherHelper.Rows> open = new ArrayList<>();
+
+    /**
+     * @param name the function name of the invoked script, chunks of {@code parallel.map} run in its global
+     */
+    public void open(GraphDatabaseService db, Transaction tx, PreparedQueries queries, ProcedureMetrics metrics,
+                     String name, String publicName, ScriptBackend backend) {
+        close();
+        this.db = db;
+        this.tx = tx;
+        this.queries = queries;
+        this.metrics = metrics;
+        this.name = name;
+        this.publicName = publicName;
+        this.backend = backend;
+        this.profile = InvocationProfile.current();
+    }
+
+    /**
+     * Closes the results of queries the script didn't exhaust.
+     */
+    public void close() {
+        for (CypherHelper.Rows rows : open) {
+            rows.close();
+        }
+        open.clear();
+        db = null;
+        tx = null;
+        queries = null;
+        metrics = null;
+        profile = null;
+    }
+
+    GraphDatabaseService getDb() {
+        return db;
+    }
+
+    /**
+     * @return this scope, once an invocation opened it
+     */
+    HelperScope checkOpen() {
+        if (tx == null) {
+            throw new IllegalStateException("The helpers can only be used while a script is invoked");
+        }
+        return this;
+    }
+
+    Transaction getTx() {
+        return tx;
+    }
+
+    PreparedQueries getQueries() {
+        return queries;
+    }
+
+    ProcedureMetrics getMetrics() {
+        return metrics;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getPublicName() {
+        return publicName;
+    }
+
+    ScriptBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * @return the profile of the invocation, null if it isn't profiled
+     */
+    InvocationProfile getProfile() {
+        return profile;
+    }
+
+    void opened(CypherHelper.Rows rows) {
+        open.add(rows);
+    }
+}
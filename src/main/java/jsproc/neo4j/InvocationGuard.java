@@ -0,0 +1,338 @@
+package jsproc.neo4j;
+
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.impl.coreapi.InternalTransaction;
+import org.openjdk.nashorn.api.tree.BlockTree;
+import org.openjdk.nashorn.api.tree.CompilationUnitTree;
+import org.openjdk.nashorn.api.tree.DoWhileLoopTree;
+import org.openjdk.nashorn.api.tree.ExpressionStatementTree;
+import org.openjdk.nashorn.api.tree.ForInLoopTree;
+import org.openjdk.nashorn.api.tree.ForOfLoopTree;
+import org.openjdk.nashorn.api.tree.ForLoopTree;
+import org.openjdk.nashorn.api.tree.FunctionDeclarationTree;
+import org.openjdk.nashorn.api.tree.FunctionExpressionTree;
+import org.openjdk.nashorn.api.tree.LiteralTree;
+import org.openjdk.nashorn.api.tree.Parser;
+import org.openjdk.nashorn.api.tree.SimpleTreeVisitorES6;
+import org.openjdk.nashorn.api.tree.StatementTree;
+import org.openjdk.nashorn.api.tree.Tree;
+import org.openjdk.nashorn.api.tree.WhileLoopTree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Deadlines and cancellation of running scripts. Nashorn cannot interrupt a script, so scripts are instrumented
+ * when they are compiled: every loop counts its iterations in a local variable of its function and every {@link #CHECK_INTERVAL}th
+ * iteration calls {@code __jsproc_guard.check()}. The check aborts the invocation running on the current thread
+ * once its deadline has passed or its transaction was terminated. Once aborted every check fails, so a script
+ * catching the error in a loop still can't carry on. The checks are inserted on the line of the loop, so line
+ * numbers of errors are kept; only columns after a loop on the same line move.
+ */
+public class InvocationGuard {
+
+    public static final String NAME = "__jsproc_guard";
+    public static final InvocationGuard GUARD = new InvocationGuard();
+
+    static final int CHECK_INTERVAL = 256;
+    private static final String COUNTER = "__jsproc_t";
+    private static final String CHECK = "if(((%1$s=%1$s+1)&" + (CHECK_INTERVAL - 1) + ")===0)" + NAME + ".check();";
+    private static final ThreadLocal<Invocation> CURRENT = new ThreadLocal<>();
+
+    private InvocationGuard() {
+    }
+
+    /**
+     * Called from the instrumented scripts.
+     */
+    public void check() {
+        Invocation invocation = CURRENT.get();
+        if (invocation != null) {
+            invocation.tick();
+        }
+    }
+
+    /**
+     * Starts guarding an invocation on the current thread, until {@link Invocation#exit()}.
+     *
+     * @param timeoutMillis 0 for no deadline
+     */
+    public static Invocation enter(String publicName, long timeoutMillis, Transaction tx) {
+        Invocation invocation = new Invocation(CURRENT.get(), publicName, timeoutMillis, tx);
+        CURRENT.set(invocation);
+        return invocation;
+    }
+
+    /**
+     * Starts guarding work an invocation hands to the current thread, e.g. a chunk of {@code parallel.map}, until
+     * {@link Invocation#exit()}. The work shares the deadline and the transaction of the invocation.
+     */
+    public static Invocation enter(Invocation parent) {
+        Invocation invocation = new Invocation(CURRENT.get(), parent);
+        CURRENT.set(invocation);
+        return invocation;
+    }
+
+    /**
+     * @return the invocation guarded on the current thread, null if there is none
+     */
+    public static Invocation current() {
+        return CURRENT.get();
+    }
+
+    public static boolean isAbort(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InvocationAbortedException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the script with a guard check at the start of every loop body,
+     * or the script itself if it cannot be parsed
+     */
+    public static String instrument(String script) {
+        CompilationUnitTree cut = Parser.create().parse(NAME, script, diagnostic -> { });
+        if (cut == null) {
+            return script;
+        }
+        List<Insertion> insertions = new ArrayList<>();
+        cut.accept(new SimpleTreeVisitorES6<Void, Void>() {
+            private int loops = 0;
+            // The counters of the loops of every enclosing function, declared at the start of the function.
+            private final Deque<List<String>> counters = new ArrayDeque<>(Collections.singleton(new ArrayList<>()));
+
+            @Override
+            public Void visitFunctionDeclaration(FunctionDeclarationTree node, Void unused) {
+                counters.push(new ArrayList<>());
+                super.visitFunctionDeclaration(node, unused);
+                declare(counters.pop(), node.getBody().getStatements(), node.getBody().getStartPosition() + 1);
+                return null;
+            }
+
+            @Override
+            public Void visitFunctionExpression(FunctionExpressionTree node, Void unused) {
+                counters.push(new ArrayList<>());
+                super.visitFunctionExpression(node, unused);
+                Tree body = node.getBody();
+                declare(counters.pop(), body instanceof BlockTree ? ((BlockTree) body).getStatements() : Collections.emptyList(),
+                        body.getStartPosition() + 1);
+                return null;
+            }
+
+            @Override
+            public Void visitCompilationUnit(CompilationUnitTree node, Void unused) {
+                super.visitCompilationUnit(node, unused);
+                declare(counters.pop(), node.getSourceElements(), 0);
+                return null;
+            }
+
+            @Override
+            public Void visitForLoop(ForLoopTree node, Void unused) {
+                guard(node.getStatement());
+                return super.visitForLoop(node, unused);
+            }
+
+            @Override
+            public Void visitForInLoop(ForInLoopTree node, Void unused) {
+                guard(node.getStatement());
+                return super.visitForInLoop(node, unused);
+            }
+
+            @Override
+            public Void visitForOfLoop(ForOfLoopTree node, Void unused) {
+                guard(node.getStatement());
+                return super.visitForOfLoop(node, unused);
+            }
+
+            @Override
+            public Void visitWhileLoop(WhileLoopTree node, Void unused) {
+                guard(node.getStatement());
+                return super.visitWhileLoop(node, unused);
+            }
+
+            @Override
+            public Void visitDoWhileLoop(DoWhileLoopTree node, Void unused) {
+                guard(node.getStatement());
+                return super.visitDoWhileLoop(node, unused);
+            }
+
+            /**
+             * Declares the counters after the directive prologue of the body, a 'use strict' following a
+             * declaration would no longer be a directive.
+             */
+            private void declare(List<String> names, List<? extends Tree> statements, long start) {
+                if (names.isEmpty()) {
+                    return;
+                }
+                long position = start;
+                String separator = "";
+                for (Tree statement : statements) {
+                    if (!isDirective(statement)) {
+                        break;
+                    }
+                    position = directiveEnd((int) statement.getStartPosition());
+                    int next = (int) position;
+                    while (next < script.length() && Character.isWhitespace(script.charAt(next))) {
+                        next++;
+                    }
+                    if (next < script.length() && script.charAt(next) == ';') {
+                        position = next + 1;
+                        separator = "";
+                    } else {
+                        separator = ";";
+                    }
+                }
+                // Initialized counters stay int typed, which keeps the check almost free.
+                insertions.add(new Insertion(position, separator + "var " + names.stream().map(name -> name + "=0").collect(Collectors.joining(",")) + ";"));
+            }
+
+            /**
+             * The tree starts a string literal at its first character rather than at its opening quote and ends it
+             * before its closing quote, so the quotes are found in the text.
+             */
+            private int directiveEnd(int start) {
+                int open = start > 0 && (script.charAt(start - 1) == '\'' || script.charAt(start - 1) == '"') ? start - 1 : start;
+                char quote = script.charAt(open);
+                int end = open + 1;
+                while (end < script.length() && script.charAt(end) != quote) {
+                    end += script.charAt(end) == '\\' ? 2 : 1;
+                }
+                return Math.min(end + 1, script.length());
+            }
+
+            private boolean isDirective(Tree statement) {
+                return statement instanceof ExpressionStatementTree
+                        && ((ExpressionStatementTree) statement).getExpression() instanceof LiteralTree
+                        && ((LiteralTree) ((ExpressionStatementTree) statement).getExpression()).getValue() instanceof String;
+            }
+
+            private void guard(Tree body) {
+                String counter = COUNTER + loops++;
+                counters.peek().add(counter);
+                String check = String.format(CHECK, counter);
+                if (body instanceof BlockTree) {
+                    insertions.add(new Insertion(body.getStartPosition() + 1, check));
+                } else if (body instanceof StatementTree) {
+                    // Wrap a single statement body in a block, including its semicolon so that do-while stays valid.
+                    int end = (int) body.getEndPosition();
+                    int next = end;
+                    while (next < script.length() && Character.isWhitespace(script.charAt(next))) {
+                        next++;
+                    }
+                    if (next < script.length() && script.charAt(next) == ';') {
+                        end = next + 1;
+                    }
+                    insertions.add(new Insertion(body.getStartPosition(), "{" + check));
+                    insertions.add(new Insertion(end, "}"));
+                }
+            }
+        }, null);
+
+        // Insert from the back so the positions of the tree stay valid. Everything stays on its line.
+        insertions.sort(Comparator.comparingLong((Insertion insertion) -> insertion.position).reversed());
+        StringBuilder instrumented = new StringBuilder(script);
+        for (Insertion insertion : insertions) {
+            instrumented.insert((int) insertion.position, insertion.text);
+        }
+        return instrumented.toString();
+    }
+
+    private static class Insertion {
+        private final long position;
+        private final String text;
+
+        private Insertion(long position, String text) {
+            this.position = position;
+            this.text = text;
+        }
+    }
+
+    public static class Invocation {
+        private final Invocation outer;
+        private final String publicName;
+        private final long timeoutMillis;
+        private final long deadline;
+        private final InternalTransaction tx;
+        private final String databaseName;
+        private volatile String abort = null;
+
+        private Invocation(Invocation outer, String publicName, long timeoutMillis, Transaction tx) {
+            this.outer = outer;
+            this.publicName = publicName;
+            this.timeoutMillis = timeoutMillis;
+            this.deadline = timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+            this.tx = tx instanceof InternalTransaction ? (InternalTransaction) tx : null;
+            this.databaseName = this.tx == null ? null : this.tx.getDatabaseName();
+        }
+
+        private Invocation(Invocation outer, Invocation parent) {
+            this.outer = outer;
+            this.publicName = parent.publicName;
+            this.timeoutMillis = parent.timeoutMillis;
+            this.deadline = parent.deadline;
+            this.tx = parent.tx;
+            this.databaseName = parent.databaseName;
+        }
+
+        /**
+         * @return the database of the transaction of the invocation, null if it has none
+         */
+        public String getDatabaseName() {
+            return databaseName;
+        }
+
+        private void tick() {
+            if (isAborted()) {
+                throw abortException();
+            }
+        }
+
+        /**
+         * Can be called from any thread, e.g. by a backend that interrupts scripts itself.
+         *
+         * @return whether the deadline has passed or the transaction was terminated
+         */
+        public boolean isAborted() {
+            if (abort == null) {
+                if (deadline != 0 && System.nanoTime() - deadline > 0) {
+                    abort = String.format("%s exceeded its execution time of %d ms", publicName, timeoutMillis);
+                } else if (tx != null && tx.terminationReason().isPresent()) {
+                    abort = String.format("%s aborted, the transaction was terminated: %s", publicName, tx.terminationReason().get());
+                }
+            }
+            return abort != null;
+        }
+
+        public InvocationAbortedException abortException() {
+            return new InvocationAbortedException(abort);
+        }
+
+        /**
+         * Stops guarding this invocation and resumes guarding the one it was nested in.
+         */
+        public void exit() {
+            if (outer == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(outer);
+            }
+        }
+    }
+
+    public static class InvocationAbortedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public InvocationAbortedException(String message) {
+            super(message);
+        }
+    }
+}
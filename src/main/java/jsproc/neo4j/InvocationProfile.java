@@ -0,0 +1,155 @@
+package jsproc.neo4j;
+
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.internal.kernel.api.ExecutionStatistics;
+import org.neo4j.kernel.impl.coreapi.InternalTransaction;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Where the time of one invocation run by {@code js.procedure.profile} went. The profile is bound to the invoking
+ * thread while it runs, so loading the script, the {@code cypher} and {@code graph} helpers and the pulled rows
+ * report into it without any cost for unprofiled invocations. Page hits and faults of the transaction stand in for
+ * the db hits of Cypher PROFILE, they also cover the Core API calls a script makes on {@code params.txn}.
+ */
+public class InvocationProfile {
+
+    private static final ThreadLocal<InvocationProfile> CURRENT = new ThreadLocal<>();
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private final Transaction tx;
+    private long wallStart;
+    private long cpuStart;
+    private long allocatedStart;
+    private long pageHitsStart;
+    private long pageFaultsStart;
+
+    long wallNanos;
+    long cpuNanos = -1;
+    long allocatedBytes = -1;
+    long pageHits = -1;
+    long pageFaults = -1;
+    long lookupNanos;
+    long compileNanos;
+    boolean compiled;
+    long executionNanos;
+    long conversionNanos;
+    long dbCalls;
+    long dbNanos;
+    long dbRows;
+    long resultSize;
+
+    private InvocationProfile(Transaction tx) {
+        this.tx = tx;
+    }
+
+    /**
+     * Starts profiling the invocation on the current thread in the transaction.
+     */
+    public static InvocationProfile start(Transaction tx) {
+        InvocationProfile profile = new InvocationProfile(tx);
+        ExecutionStatistics statistics = profile.statistics();
+        if (statistics != null) {
+            profile.pageHitsStart = statistics.pageHits();
+            profile.pageFaultsStart = statistics.pageFaults();
+        }
+        profile.allocatedStart = allocatedBytes();
+        profile.cpuStart = cpuTime();
+        profile.wallStart = System.nanoTime();
+        CURRENT.set(profile);
+        return profile;
+    }
+
+    /**
+     * @return the profile of the invocation on the current thread, null if it isn't profiled
+     */
+    public static InvocationProfile current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Stops profiling, the counters of the thread and the transaction are read once more.
+     */
+    public void stop() {
+        wallNanos = System.nanoTime() - wallStart;
+        long cpu = cpuTime();
+        cpuNanos = cpu < 0 || cpuStart < 0 ? -1 : cpu - cpuStart;
+        long allocated = allocatedBytes();
+        allocatedBytes = allocated < 0 || allocatedStart < 0 ? -1 : allocated - allocatedStart;
+        ExecutionStatistics statistics = statistics();
+        if (statistics != null) {
+            pageHits = statistics.pageHits() - pageHitsStart;
+            pageFaults = statistics.pageFaults() - pageFaultsStart;
+        }
+        CURRENT.remove();
+    }
+
+    public void lookedUp(long nanos) {
+        lookupNanos += nanos;
+    }
+
+    public void executed(long nanos) {
+        executionNanos += nanos;
+    }
+
+    public void converted(long nanos) {
+        conversionNanos += nanos;
+    }
+
+    /**
+     * @param result the converted result, lists and maps count their elements, null counts as 0 and any other value as 1
+     */
+    public void resultOf(Object result) {
+        if (result == null) {
+            resultSize = 0;
+        } else if (result instanceof Collection) {
+            resultSize = ((Collection<?>) result).size();
+        } else if (result instanceof Map) {
+            resultSize = ((Map<?, ?>) result).size();
+        } else if (result.getClass().isArray()) {
+            resultSize = Array.getLength(result);
+        } else {
+            resultSize = 1;
+        }
+    }
+
+    public void compiled(boolean compiled, long nanos) {
+        this.compiled |= compiled;
+        compileNanos += nanos;
+    }
+
+    public void dbCall(long nanos) {
+        dbCalls++;
+        dbNanos += nanos;
+    }
+
+    /**
+     * Time spent pulling rows of a result, which Cypher computes lazily.
+     */
+    public void dbPull(long nanos, long rows) {
+        dbNanos += nanos;
+        dbRows += rows;
+    }
+
+    private ExecutionStatistics statistics() {
+        return tx instanceof InternalTransaction ? ((InternalTransaction) tx).kernelTransaction().executionStatistics() : null;
+    }
+
+    private static long cpuTime() {
+        return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : -1;
+    }
+
+    private static long allocatedBytes() {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+            if (allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled()) {
+                return allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,33 @@
+package jsproc.neo4j;
+
+import java.util.List;
+import java.util.Map;
+
+public class IterateResult {
+
+    public final long batches;
+    public final long total;
+    public final long committed;
+    public final long failed;
+    public final long failedBatches;
+    public final long retries;
+    public final long timeTaken;
+    public final Map<String, Object> batch;
+    public final Map<String, Object> errorMessages;
+    public final List<Map<String, Object>> failures;
+
+    public IterateResult(long batches, long total, long committed, long failed, long failedBatches, long retries, long timeTaken,
+                         Map<String, Object> batch, Map<String, Object> errorMessages, List<Map<String, Object>> failures) {
+        this.batches = batches;
+        this.total = total;
+        this.committed = committed;
+        this.failed = failed;
+        this.failedBatches = failedBatches;
+        this.retries = retries;
+        this.timeTaken = timeTaken;
+        this.batch = batch;
+        this.errorMessages = errorMessages;
+        this.failures = failures;
+    }
+
+}
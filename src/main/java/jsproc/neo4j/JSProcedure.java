@@ -0,0 +1,246 @@
+package jsproc.neo4j;
+
+import org.neo4j.collection.RawIterator;
+import org.neo4j.internal.kernel.api.exceptions.ProcedureException;
+import org.neo4j.internal.kernel.api.procs.Neo4jTypes;
+import org.neo4j.internal.kernel.api.procs.ProcedureSignature;
+import org.neo4j.internal.kernel.api.procs.QualifiedName;
+import org.neo4j.kernel.api.ResourceTracker;
+import org.neo4j.kernel.api.exceptions.Status;
+import org.neo4j.kernel.api.procedure.CallableProcedure;
+import org.neo4j.kernel.api.procedure.Context;
+import org.neo4j.kernel.impl.coreapi.InternalTransaction;
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.Mode;
+import org.neo4j.values.AnyValue;
+import org.neo4j.values.ValueMapper;
+import org.neo4j.values.storable.Values;
+import org.neo4j.values.virtual.MapValue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.neo4j.internal.kernel.api.procs.DefaultParameterValue.ntMap;
+
+/**
+ * Cypher procedure {@code js.proc.<publicName>} for a stored procedure. Inputs, outputs and mode come from the
+ * register config, e.g. {mode: 'READ', inputs: ['name :: STRING'], outputs: ['count :: INTEGER']}. Without inputs
+ * the procedure takes a single params map, without outputs it yields the returned value as a single result column.
+ * The script is resolved in the database of the calling transaction.
+ */
+public class JSProcedure extends CallableProcedure.BasicProcedure {
+
+    public static final String[] NAMESPACE = {"js", "proc"};
+    private static final String PARAMS = "params";
+    private static final String RESULT = "result";
+
+    private final String publicName;
+    private final String[] inputs;
+    private final String[] outputs;
+    private final Neo4jTypes.AnyType[] outputTypes;
+    private final Log log;
+
+    public JSProcedure(String publicName, String mode, String[] inputs, String[] outputs, Log log) {
+        super(signature(publicName, mode, inputs, outputs));
+        this.publicName = publicName;
+        this.inputs = names(inputs);
+        this.outputs = outputs.length == 0 ? new String[]{RESULT} : names(outputs);
+        this.outputTypes = outputs.length == 0 ? new Neo4jTypes.AnyType[]{Neo4jTypes.NTAny} : types(outputs);
+        this.log = log;
+    }
+
+    public static QualifiedName qualifiedName(String publicName) {
+        return new QualifiedName(NAMESPACE, publicName);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the mode or a field declaration is not valid
+     */
+    public static ProcedureSignature signature(String publicName, String mode, String[] inputs, String[] outputs) {
+        ProcedureSignature.Builder builder = ProcedureSignature.procedureSignature(NAMESPACE, publicName)
+                .mode(mode(mode))
+                .description(String.format("js.proc.%s - Invoke the stored Javascript procedure %s", publicName, publicName));
+        if (inputs.length == 0) {
+            builder.in(PARAMS, Neo4jTypes.NTMap, ntMap(Collections.emptyMap()));
+        }
+        String[] inputNames = names(inputs);
+        Neo4jTypes.AnyType[] inputTypes = types(inputs);
+        for (int i = 0; i < inputs.length; i++) {
+            builder.in(inputNames[i], inputTypes[i]);
+        }
+        if (outputs.length == 0) {
+            builder.out(RESULT, Neo4jTypes.NTAny);
+        }
+        String[] outputNames = names(outputs);
+        Neo4jTypes.AnyType[] outputTypes = types(outputs);
+        for (int i = 0; i < outputs.length; i++) {
+            builder.out(outputNames[i], outputTypes[i]);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Reads a list of field declarations like 'name :: STRING' from the register config.
+     */
+    public static String[] fields(Map<String, Object> config, String key) {
+        Object value = config == null ? null : config.get(key);
+        if (value == null) {
+            return new String[0];
+        }
+        if (!(value instanceof List)) {
+            throw new IllegalArgumentException(String.format("Config '%s' must be a list like ['name :: STRING']", key));
+        }
+        return ((List<?>) value).stream().map(String::valueOf).toArray(String[]::new);
+    }
+
+    public static String mode(Map<String, Object> config) {
+        Object value = config == null ? null : config.get("mode");
+        return value == null ? Mode.WRITE.name() : value.toString().toUpperCase(Locale.ROOT);
+    }
+
+    private static Mode mode(String mode) {
+        if (Mode.READ.name().equals(mode) || Mode.WRITE.name().equals(mode)) {
+            return Mode.valueOf(mode);
+        }
+        throw new IllegalArgumentException("Procedure mode must be READ or WRITE but was " + mode);
+    }
+
+    private static String[] names(String[] fields) {
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            int separator = fields[i].indexOf("::");
+            String name = (separator < 0 ? fields[i] : fields[i].substring(0, separator)).trim();
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException("Field declaration must be like 'name :: STRING' but was " + fields[i]);
+            }
+            names[i] = name;
+        }
+        return names;
+    }
+
+    private static Neo4jTypes.AnyType[] types(String[] fields) {
+        Neo4jTypes.AnyType[] types = new Neo4jTypes.AnyType[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            int separator = fields[i].indexOf("::");
+            types[i] = separator < 0 ? Neo4jTypes.NTAny : type(fields[i].substring(separator + 2).trim().toUpperCase(Locale.ROOT));
+        }
+        return types;
+    }
+
+    private static Neo4jTypes.AnyType type(String type) {
+        if (type.startsWith("LIST OF ")) {
+            return Neo4jTypes.NTList(type(type.substring("LIST OF ".length()).trim()));
+        }
+        switch (type.endsWith("?") ? type.substring(0, type.length() - 1) : type) {
+            case "ANY": return Neo4jTypes.NTAny;
+            case "STRING": return Neo4jTypes.NTString;
+            case "NUMBER": return Neo4jTypes.NTNumber;
+            case "INTEGER": return Neo4jTypes.NTInteger;
+            case "FLOAT": return Neo4jTypes.NTFloat;
+            case "BOOLEAN": return Neo4jTypes.NTBoolean;
+            case "MAP": return Neo4jTypes.NTMap;
+            case "LIST": return Neo4jTypes.NTList(Neo4jTypes.NTAny);
+            case "NODE": return Neo4jTypes.NTNode;
+            case "RELATIONSHIP": return Neo4jTypes.NTRelationship;
+            case "PATH": return Neo4jTypes.NTPath;
+            case "POINT": return Neo4jTypes.NTPoint;
+            case "DATE": return Neo4jTypes.NTDate;
+            case "DATETIME": return Neo4jTypes.NTDateTime;
+            case "LOCALDATETIME": return Neo4jTypes.NTLocalDateTime;
+            case "TIME": return Neo4jTypes.NTTime;
+            case "LOCALTIME": return Neo4jTypes.NTLocalTime;
+            case "DURATION": return Neo4jTypes.NTDuration;
+            default: throw new IllegalArgumentException("Unknown field type " + type);
+        }
+    }
+
+    @Override
+    public RawIterator<AnyValue[], ProcedureException> apply(Context ctx, AnyValue[] input, ResourceTracker resourceTracker) throws ProcedureException {
+        InternalTransaction tx = ctx.internalTransaction();
+        ScriptDetails details = StoredProcedureEngine.getStoredProcedureEngine(null).getEngine(ctx.graphDatabaseAPI(), tx, publicName);
+        if (details == null) {
+            throw new ProcedureException(Status.Procedure.ProcedureCallFailed,
+                    "Procedure %s doesn't exist or cannot be loaded into ScriptEngine.", publicName);
+        }
+        ValueMapper<Object> mapper = ctx.valueMapper();
+        Map<String, Object> parameters = new HashMap<>();
+        if (inputs.length == 0) {
+            if (input.length > 0 && input[0] instanceof MapValue) {
+                ((MapValue) input[0]).foreach((key, value) -> parameters.put(key, value.map(mapper)));
+            }
+        } else {
+            for (int i = 0; i < inputs.length && i < input.length; i++) {
+                parameters.put(inputs[i], input[i].map(mapper));
+            }
+        }
+        parameters.put("txn", tx);
+        parameters.put("log", log);
+
+        Iterator<?> rows;
+        try {
+            rows = details.rows(details.invoke(parameters));
+        } catch (Exception e) {
+            details.release();
+            log.error("Something went wrong", e);
+            throw new ProcedureException(Status.Procedure.ProcedureCallFailed, e, e.getMessage());
+        }
+        AutoCloseable release = details::release;
+        resourceTracker.registerCloseableResource(release);
+        ProcedureMetrics metrics = details.getMetrics();
+        return new RawIterator<>() {
+            @Override
+            public boolean hasNext() throws ProcedureException {
+                try {
+                    if (rows.hasNext()) {
+                        return true;
+                    }
+                } catch (Exception e) {
+                    throw new ProcedureException(Status.Procedure.ProcedureCallFailed, e, e.getMessage());
+                }
+                details.release();
+                resourceTracker.unregisterCloseableResource(release);
+                return false;
+            }
+
+            @Override
+            public AnyValue[] next() throws ProcedureException {
+                Object row;
+                try {
+                    row = rows.next();
+                } catch (Exception e) {
+                    throw new ProcedureException(Status.Procedure.ProcedureCallFailed, e, e.getMessage());
+                }
+                long converting = System.nanoTime();
+                AnyValue[] record = new AnyValue[outputs.length];
+                if (outputs.length == 1 && !(row instanceof Map && ((Map<?, ?>) row).containsKey(outputs[0]))) {
+                    record[0] = value(row, outputTypes[0]);
+                } else {
+                    Map<?, ?> columns = row instanceof Map ? (Map<?, ?>) row : Collections.emptyMap();
+                    for (int i = 0; i < outputs.length; i++) {
+                        record[i] = value(columns.get(outputs[i]), outputTypes[i]);
+                    }
+                }
+                metrics.recordConversion(System.nanoTime() - converting);
+                return record;
+            }
+        };
+    }
+
+    /**
+     * JS numbers are doubles, so numbers are narrowed to the declared column type.
+     */
+    private static AnyValue value(Object value, Neo4jTypes.AnyType type) {
+        if (value instanceof Number) {
+            if (type == Neo4jTypes.NTInteger) {
+                return Values.longValue(((Number) value).longValue());
+            } else if (type == Neo4jTypes.NTFloat) {
+                return Values.doubleValue(((Number) value).doubleValue());
+            }
+        }
+        return ScriptValueConverter.toValue(value);
+    }
+}
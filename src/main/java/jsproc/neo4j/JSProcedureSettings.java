@@ -0,0 +1,61 @@
+package jsproc.neo4j;
+
+import org.neo4j.annotations.service.ServiceProvider;
+import org.neo4j.configuration.Description;
+import org.neo4j.configuration.SettingsDeclaration;
+import org.neo4j.graphdb.config.Setting;
+
+import java.time.Duration;
+
+import static org.neo4j.configuration.SettingConstraints.min;
+import static org.neo4j.configuration.SettingImpl.newBuilder;
+import static org.neo4j.configuration.SettingValueParsers.BOOL;
+import static org.neo4j.configuration.SettingValueParsers.BYTES;
+import static org.neo4j.configuration.SettingValueParsers.DURATION;
+import static org.neo4j.configuration.SettingValueParsers.INT;
+import static org.neo4j.configuration.SettingValueParsers.STRING;
+
+@ServiceProvider
+public class JSProcedureSettings implements SettingsDeclaration {
+
+    @Description("Maximum number of script engines kept per database for concurrent stored procedure invocations.")
+    public static final Setting<Integer> engine_pool_size = newBuilder("dbms.js.procedure.engine_pool_size", INT, Runtime.getRuntime().availableProcessors())
+            .addConstraint(min(1))
+            .build();
+
+    @Description("Maximum time an invocation waits for an idle script engine when all engines of the pool are in use, " +
+            "e.g. held by open streams. The invocation fails once it is exceeded.")
+    public static final Setting<Duration> engine_wait_timeout = newBuilder("dbms.js.procedure.engine_wait_timeout", DURATION, Duration.ofSeconds(60))
+            .build();
+
+    @Description("Maximum number of compiled stored procedures kept resident per database. The least recently used ones are " +
+            "evicted beyond this and reloaded from their node on the next invocation.")
+    public static final Setting<Integer> max_resident_scripts = newBuilder("dbms.js.procedure.max_resident_scripts", INT, 10000)
+            .addConstraint(min(1))
+            .build();
+
+    @Description("Maximum execution time of a stored procedure or function invocation. Scripts running longer are aborted. " +
+            "A timeout in the register config can only lower it. 0 means no limit.")
+    public static final Setting<Duration> max_execution_time = newBuilder("dbms.js.procedure.max_execution_time", DURATION, Duration.ZERO)
+            .build();
+
+    @Description("Keep the compiled stored procedures in a code cache under the data directory, so they are loaded instead of " +
+            "compiled again after a restart.")
+    public static final Setting<Boolean> code_cache_enabled = newBuilder("dbms.js.procedure.code_cache_enabled", BOOL, true)
+            .build();
+
+    @Description("Maximum size of the code cache. The oldest entries are removed beyond this.")
+    public static final Setting<Long> code_cache_max_size = newBuilder("dbms.js.procedure.code_cache_max_size", BYTES, 256L * 1024 * 1024)
+            .addConstraint(min(0L))
+            .build();
+
+    @Description("Backend of the stored procedures registered without a backend in their config, nashorn or graaljs. " +
+            "GraalJS must be installed in the plugins directory.")
+    public static final Setting<String> default_backend = newBuilder("dbms.js.procedure.default_backend", STRING, NashornBackend.NAME)
+            .build();
+
+    @Description("Time budget of warming up the hot stored procedures after they were loaded or registered. " +
+            "0 disables the warm-up.")
+    public static final Setting<Duration> warmup_budget = newBuilder("dbms.js.procedure.warmup_budget", DURATION, Duration.ofSeconds(10))
+            .build();
+}
@@ -0,0 +1,95 @@
+package jsproc.neo4j;
+
+import org.neo4j.internal.kernel.api.exceptions.ProcedureException;
+import org.neo4j.internal.kernel.api.procs.QualifiedName;
+import org.neo4j.internal.kernel.api.procs.UserFunctionSignature;
+import org.neo4j.kernel.api.exceptions.Status;
+import org.neo4j.kernel.api.procedure.CallableUserFunction;
+import org.neo4j.kernel.api.procedure.Context;
+import org.neo4j.kernel.impl.coreapi.InternalTransaction;
+import org.neo4j.logging.Log;
+import org.neo4j.values.AnyValue;
+import org.neo4j.values.ValueMapper;
+import org.neo4j.values.virtual.MapValue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.neo4j.internal.kernel.api.procs.DefaultParameterValue.ntMap;
+import static org.neo4j.internal.kernel.api.procs.Neo4jTypes.NTAny;
+import static org.neo4j.internal.kernel.api.procs.Neo4jTypes.NTMap;
+
+/**
+ * Cypher user function {@code js.fn.<publicName>(params)} for a function registered with js.function.register.
+ * The script is resolved in the database of the calling transaction, so one registration serves all databases.
+ */
+public class JSUserFunction extends CallableUserFunction.BasicUserFunction {
+
+    public static final String[] NAMESPACE = {"js", "fn"};
+
+    private final String publicName;
+    private final Log log;
+
+    public JSUserFunction(String publicName, Log log) {
+        super(UserFunctionSignature.functionSignature(NAMESPACE, publicName)
+                .in("params", NTMap, ntMap(Collections.emptyMap()))
+                .out(NTAny)
+                .description(String.format("js.fn.%s({Function Params}) - Invoke the registered Javascript function %s", publicName, publicName))
+                .build());
+        this.publicName = publicName;
+        this.log = log;
+    }
+
+    public static QualifiedName qualifiedName(String publicName) {
+        return new QualifiedName(NAMESPACE, publicName);
+    }
+
+    @Override
+    public AnyValue apply(Context ctx, AnyValue[] input) throws ProcedureException {
+        InternalTransaction tx = ctx.internalTransaction();
+        ResultCache cache = StoredProcedureEngine.getStoredProcedureEngine(null).getResultCache(ctx.graphDatabaseAPI(), publicName);
+        Map<String, Object> parameters = new HashMap<>();
+        if (input.length > 0 && input[0] instanceof MapValue) {
+            ValueMapper<Object> mapper = ctx.valueMapper();
+            ((MapValue) input[0]).foreach((key, value) -> parameters.put(key, value.map(mapper)));
+        }
+        String key = cache == null ? null : cache.key(parameters);
+        Object cached = key == null ? null : cache.get(key);
+        if (cached != null) {
+            return ScriptValueConverter.toValue(ResultCache.isNull(cached) ? null : cached);
+        }
+        ScriptDetails details = StoredProcedureEngine.getStoredProcedureEngine(null).getEngine(ctx.graphDatabaseAPI(), tx, publicName);
+        if (details == null) {
+            throw new ProcedureException(Status.Procedure.ProcedureCallFailed,
+                    "Function %s doesn't exist or cannot be loaded into ScriptEngine.", publicName);
+        }
+        if (cache == null && details.getResultCache() != null) {
+            // The lookup brought the script up to date.
+            cache = details.getResultCache();
+            key = cache.missedKey(parameters);
+        }
+        parameters.put("txn", tx);
+        parameters.put("log", log);
+        try {
+            Object response = details.invoke(parameters);
+            long converting = System.nanoTime();
+            AnyValue result;
+            if (key != null) {
+                // Cached results are kept as Java values, see ResultCache#put.
+                Object converted = ScriptValueConverter.toJava(response);
+                cache.put(key, converted);
+                result = ScriptValueConverter.toValue(converted);
+            } else {
+                result = ScriptValueConverter.toValue(response);
+            }
+            details.getMetrics().recordConversion(System.nanoTime() - converting);
+            return result;
+        } catch (Exception e) {
+            log.error("Something went wrong", e);
+            throw new ProcedureException(Status.Procedure.ProcedureCallFailed, e, e.getMessage());
+        } finally {
+            details.release();
+        }
+    }
+}
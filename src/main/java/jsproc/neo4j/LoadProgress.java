@@ -0,0 +1,85 @@
+package jsproc.neo4j;
+
+import org.neo4j.logging.Log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of loading the stored procedures of one database at startup.
+ */
+public class LoadProgress {
+
+    private final String dbName;
+    private final Log log;
+    private final int total;
+    private final int step;
+    private final long start = System.nanoTime();
+    private final AtomicInteger compiled = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger deferred = new AtomicInteger();
+    private final AtomicInteger warmedUp = new AtomicInteger();
+    private volatile long loadMillis = -1;
+
+    public LoadProgress(String dbName, int total, Log log) {
+        this.dbName = dbName;
+        this.total = total;
+        this.log = log;
+        this.step = Math.max(100, total / 10);
+    }
+
+    public void compiled() {
+        report(compiled.incrementAndGet() + failed.get() + deferred.get());
+    }
+
+    public void failed() {
+        report(compiled.get() + failed.incrementAndGet() + deferred.get());
+    }
+
+    public void deferred() {
+        report(compiled.get() + failed.get() + deferred.incrementAndGet());
+    }
+
+    public void warmedUp() {
+        warmedUp.incrementAndGet();
+    }
+
+    private void report(int done) {
+        if (done % step == 0) {
+            log.info(String.format("Loaded %d of %d stored procedures for Database : %s", done, total, dbName));
+        }
+    }
+
+    public void finished() {
+        loadMillis = (System.nanoTime() - start) / 1_000_000;
+        log.info(String.format("Stored procedures for Database : %s are ready after %d ms. %d compiled, %d deferred to first use, %d failed, %d warmed up",
+                dbName, loadMillis, compiled.get(), deferred.get(), failed.get(), warmedUp.get()));
+    }
+
+    public boolean isReady() {
+        return loadMillis >= 0;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public int getCompiled() {
+        return compiled.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    public int getDeferred() {
+        return deferred.get();
+    }
+
+    public int getWarmedUp() {
+        return warmedUp.get();
+    }
+
+    public long getLoadMillis() {
+        return isReady() ? loadMillis : (System.nanoTime() - start) / 1_000_000;
+    }
+}
@@ -0,0 +1,90 @@
+package jsproc.neo4j;
+
+import org.neo4j.annotations.service.ServiceProvider;
+import org.openjdk.nashorn.api.scripting.NashornException;
+import org.openjdk.nashorn.api.scripting.NashornScriptEngineFactory;
+import org.openjdk.nashorn.api.scripting.ScriptObjectMirror;
+import org.openjdk.nashorn.api.tree.CompilationUnitTree;
+import org.openjdk.nashorn.api.tree.FunctionDeclarationTree;
+import org.openjdk.nashorn.api.tree.Parser;
+
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import java.util.function.Function;
+
+@ServiceProvider
+public class NashornBackend implements ScriptBackend {
+
+    public static final String NAME = "nashorn";
+
+    private static final NashornScriptEngineFactory scriptFactory = new NashornScriptEngineFactory();
+    private static final ThreadLocal<Parser> parser = ThreadLocal.withInitial(Parser::create);
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public ScriptOutline outline(String name, String script) {
+        JSParserDiagnosticListener listener = new JSParserDiagnosticListener();
+        CompilationUnitTree cut = parser.get().parse(name, script, listener);
+        if (listener.hasError()) {
+            return ScriptOutline.failed(listener.getMessage());
+        }
+        if (cut.getSourceElements().size() != 1 || !(cut.getSourceElements().get(0) instanceof FunctionDeclarationTree)) {
+            return new ScriptOutline(null, 0, ScriptClassFilter.javaTypes(cut));
+        }
+        FunctionDeclarationTree function = (FunctionDeclarationTree) cut.getSourceElements().get(0);
+        return new ScriptOutline(function.getName().getName(), function.getParameters().size(), ScriptClassFilter.javaTypes(cut));
+    }
+
+    @Override
+    public String instrument(String script) {
+        return InvocationGuard.instrument(script);
+    }
+
+    @Override
+    public ScriptEngine newEngine(EngineProfile profile, PersistentCodeCache codeCache) {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        Function<String[], ScriptEngine> factory = options -> scriptFactory.getScriptEngine(options,
+                classLoader == null ? NashornBackend.class.getClassLoader() : classLoader, ScriptClassFilter.FILTER);
+        return codeCache == null ? factory.apply(profile.getOptions()) : codeCache.newEngine(factory, profile.getOptions());
+    }
+
+    @Override
+    public Object call(ScriptContext global, String functionName, Object... args) throws ScriptException, NoSuchMethodException {
+        ScriptObjectMirror bindings = (ScriptObjectMirror) global.getBindings(ScriptContext.ENGINE_SCOPE);
+        Object function = bindings.getMember(functionName);
+        if (!(function instanceof ScriptObjectMirror) || !((ScriptObjectMirror) function).isFunction()) {
+            throw new NoSuchMethodException("No such function " + functionName);
+        }
+        try {
+            Object result = ((ScriptObjectMirror) function).call(bindings, args);
+            return ScriptObjectMirror.isUndefined(result) ? null : result;
+        } catch (NashornException e) {
+            ScriptException se = new ScriptException(e.getMessage(), e.getFileName(), e.getLineNumber(), e.getColumnNumber());
+            se.initCause(e);
+            throw se;
+        }
+    }
+
+    @Override
+    public boolean compilesConcurrently() {
+        return true;
+    }
+
+    @Override
+    public Object toJava(Object value) {
+        return ScriptValueConverter.toJava(value);
+    }
+
+    @Override
+    public String functionSource(Object function) {
+        if (!(function instanceof ScriptObjectMirror) || !((ScriptObjectMirror) function).isFunction()) {
+            return null;
+        }
+        return ((ScriptObjectMirror) function).callMember("toString").toString();
+    }
+}
@@ -0,0 +1,268 @@
+package jsproc.neo4j;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.internal.kernel.api.security.AccessMode;
+import org.neo4j.internal.kernel.api.security.SecurityContext;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.impl.api.security.RestrictedAccessMode;
+import org.neo4j.kernel.impl.coreapi.InternalTransaction;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+
+import javax.script.ScriptContext;
+import javax.script.ScriptException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Bound as {@code parallel} into the globals of every pooled engine, see {@link HelperScope}. {@code parallel.map(items, fn)} calls
+ * {@code fn(item, txn)} for every item and returns the results in the order of the items. The items are split into
+ * chunks and every chunk runs in a read transaction of its own, on a pooled engine of its own, with the {@code cypher}
+ * and {@code graph} helpers bound to that transaction. The invoking thread works on chunks as well, so a map makes
+ * progress even when no other engine is idle.
+ * <p>
+ * Engines must not be shared between threads, so fn is evaluated from its source into the global of every engine
+ * it runs on, the invoking one included. It only sees its arguments, the helpers and the globals, not the variables
+ * of the function it was declared in. The chunk transactions see what was committed before they began, not the
+ * writes of the invoking transaction. Results should be plain values; entities are bound to the transaction of their
+ * chunk. Chunks are aborted along with the invocation, on its deadline or when its transaction is terminated.
+ * <pre>
+ * var scores = parallel.map(customerIds, function(id, txn) {
+ *     return cypher.single('MATCH (c:Customer {id: $id})-[:ORDERED]->(o) RETURN sum(o.total) AS total', {id: id}).total;
+ * }, {chunkSize: 100});
+ * </pre>
+ */
+public class ParallelHelper {
+
+    // More chunks than threads, so a thread that finished early takes over the rest of the work.
+    private static final int CHUNKS_PER_THREAD = 4;
+    // Reserved, see ScriptEnginePool#isReserved.
+    private static final String FUNCTION_PREFIX = "__jsproc_parallel_";
+    private static final ExecutorService executor = newExecutor();
+
+    private final ScriptEnginePool pool;
+    private final ScriptEnginePool.PooledEngine engine;
+
+    public ParallelHelper(ScriptEnginePool pool, ScriptEnginePool.PooledEngine engine) {
+        this.pool = pool;
+        this.engine = engine;
+    }
+
+    /**
+     * Virtual threads where the runtime has them, otherwise daemon threads. The number of threads is bounded by
+     * the engines of the pools, every task holds one.
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "js-procedure-parallel");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public Object[] map(Object items, Object function) {
+        return map(items, function, null);
+    }
+
+    /**
+     * @param config {@code chunkSize}, the number of items per transaction, and {@code concurrency}, the number
+     *               of threads including the invoking one, at most the number of processors by default
+     */
+    public Object[] map(Object items, Object function, Map<String, Object> config) {
+        HelperScope scope = engine.getScope().checkOpen();
+        String source = scope.getBackend().functionSource(function);
+        if (source == null) {
+            throw new IllegalArgumentException("parallel.map needs a function.");
+        }
+        List<?> elements = elements(scope.getBackend(), items);
+        Object[] results = new Object[elements.size()];
+        if (elements.isEmpty()) {
+            return results;
+        }
+        int concurrency = option(config, "concurrency", Runtime.getRuntime().availableProcessors());
+        int chunkSize = option(config, "chunkSize", Math.max(1, ceilDiv(elements.size(), concurrency * CHUNKS_PER_THREAD)));
+        Chunks chunks = new Chunks(scope, source, elements, results, chunkSize, InvocationGuard.current());
+
+        int helpers = Math.min(concurrency, chunks.count) - 1;
+        CountDownLatch done = new CountDownLatch(helpers);
+        for (int i = 0; i < helpers; i++) {
+            ScriptEnginePool.PooledEngine helper = pool.tryBorrow();
+            if (helper == null) {
+                // No idle engine, the threads started so far and the invoking thread share the chunks.
+                done.countDown();
+                continue;
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        work(helper, chunks);
+                    } finally {
+                        pool.release(helper);
+                        done.countDown();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                pool.release(helper);
+                done.countDown();
+            }
+        }
+        work(engine, chunks);
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            chunks.fail(new RuntimeException("Interrupted while waiting for parallel.map", e));
+        }
+        if (chunks.failure != null) {
+            throw chunks.failure;
+        }
+        return results;
+    }
+
+    private void work(ScriptEnginePool.PooledEngine pooled, Chunks chunks) {
+        HelperScope scope = chunks.scope;
+        InvocationGuard.Invocation invocation = chunks.parent == null
+                ? InvocationGuard.enter(scope.getPublicName(), 0, scope.getTx()) : InvocationGuard.enter(chunks.parent);
+        try {
+            ScriptContext global = pooled.getContext(scope.getName());
+            if (global.getBindings(ScriptContext.ENGINE_SCOPE).get(chunks.functionName) == null) {
+                // Kept in the global, so later maps with the same function don't evaluate it again.
+                pooled.getEngine(scope.getName()).eval("var " + chunks.functionName + " = (" + chunks.source + ");", global);
+            }
+            int chunk;
+            while (chunks.failure == null && (chunk = chunks.next.getAndIncrement()) < chunks.count) {
+                int from = chunk * chunks.size;
+                run(pooled, global, chunks, from, Math.min(from + chunks.size, chunks.elements.size()), invocation);
+            }
+        } catch (ScriptException | NoSuchMethodException e) {
+            chunks.fail(new RuntimeException(e.getMessage(), e));
+        } catch (RuntimeException e) {
+            chunks.fail(e);
+        } finally {
+            invocation.exit();
+        }
+    }
+
+    private static void run(ScriptEnginePool.PooledEngine pooled, ScriptContext global, Chunks chunks, int from, int to,
+                            InvocationGuard.Invocation invocation) throws ScriptException, NoSuchMethodException {
+        HelperScope scope = chunks.scope;
+        try (Transaction chunkTx = beginRead(scope.getDb(), scope.getTx())) {
+            // The helpers of the engine work on the chunk transaction until the chunk is done.
+            HelperScope chunkScope = new HelperScope();
+            chunkScope.open(scope.getDb(), chunkTx, scope.getQueries(), scope.getMetrics(), scope.getName(), scope.getPublicName(), scope.getBackend());
+            HelperScope previous = pooled.enter(chunkScope);
+            try {
+                for (int i = from; i < to && chunks.failure == null; i++) {
+                    if (invocation.isAborted()) {
+                        throw invocation.abortException();
+                    }
+                    Object item = bound(chunkTx, chunks.elements.get(i));
+                    chunks.results[i] = ScriptValueConverter.toJava(scope.getBackend().call(global, chunks.functionName, item, chunkTx));
+                }
+            } finally {
+                pooled.exit(previous);
+                chunkScope.close();
+            }
+        }
+    }
+
+    /**
+     * A read transaction with the security context of the invoking transaction.
+     */
+    private static Transaction beginRead(GraphDatabaseService db, Transaction tx) {
+        if (!(db instanceof GraphDatabaseAPI) || !(tx instanceof InternalTransaction)) {
+            throw new IllegalStateException("parallel.map needs a kernel transaction");
+        }
+        InternalTransaction internal = (InternalTransaction) tx;
+        SecurityContext securityContext = internal.securityContext();
+        return ((GraphDatabaseAPI) db).beginTransaction(KernelTransaction.Type.EXPLICIT,
+                securityContext.withMode(new RestrictedAccessMode(securityContext.mode(), AccessMode.Static.READ)),
+                internal.clientInfo());
+    }
+
+    /**
+     * Entities of the invoking transaction must not be used in another one, they are looked up again.
+     */
+    private static Object bound(Transaction chunkTx, Object item) {
+        if (item instanceof Node) {
+            return chunkTx.getNodeByElementId(((Node) item).getElementId());
+        } else if (item instanceof Relationship) {
+            return chunkTx.getRelationshipByElementId(((Relationship) item).getElementId());
+        }
+        return item;
+    }
+
+    private static List<?> elements(ScriptBackend backend, Object items) {
+        Object converted = backend.toJava(items);
+        if (converted instanceof List) {
+            return (List<?>) converted;
+        } else if (converted instanceof Collection) {
+            return new ArrayList<>((Collection<?>) converted);
+        } else if (converted instanceof long[]) {
+            return Arrays.stream((long[]) converted).boxed().collect(Collectors.toList());
+        } else if (converted instanceof double[]) {
+            return Arrays.stream((double[]) converted).boxed().collect(Collectors.toList());
+        }
+        throw new IllegalArgumentException("parallel.map needs an array or a list of items.");
+    }
+
+    private static int option(Map<String, Object> config, String key, int defaultValue) {
+        Object value = config == null ? null : config.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (!(value instanceof Number) || ((Number) value).intValue() < 1) {
+            throw new IllegalArgumentException(String.format("The %s of parallel.map must be a positive number.", key));
+        }
+        return ((Number) value).intValue();
+    }
+
+    private static int ceilDiv(int dividend, int divisor) {
+        return (dividend + divisor - 1) / divisor;
+    }
+
+    private static class Chunks {
+        private final HelperScope scope;
+        private final String source;
+        private final String functionName;
+        private final List<?> elements;
+        private final Object[] results;
+        private final int size;
+        private final int count;
+        private final InvocationGuard.Invocation parent;
+        private final AtomicInteger next = new AtomicInteger();
+        private volatile RuntimeException failure;
+
+        private Chunks(HelperScope scope, String source, List<?> elements, Object[] results, int size, InvocationGuard.Invocation parent) {
+            this.scope = scope;
+            this.source = source;
+            this.functionName = FUNCTION_PREFIX + ScriptDefinition.checkSum(source);
+            this.elements = elements;
+            this.results = results;
+            this.size = size;
+            this.count = ceilDiv(elements.size(), size);
+            this.parent = parent;
+        }
+
+        private synchronized void fail(RuntimeException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package jsproc.neo4j;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs a stored procedure over the rows of a source query in batches. Every batch is passed to the function as
+ * params['batch'] together with its own transaction as params['txn'] and committed on its own, so the size of
+ * an update is no longer bounded by the memory of a single transaction. Batches run on a worker pool of
+ * {@code concurrency} threads; the source is only read ahead by as many batches as there are workers.
+ * A failed batch is rolled back and retried up to {@code retries} times before it is counted as failed.
+ */
+public class PeriodicIterate {
+
+    public static final int MAX_FAILURES = 100;
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    private final GraphDatabaseService db;
+    private final Log log;
+    private final String procedureName;
+    private final int batchSize;
+    private final int concurrency;
+    private final int retries;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAdder committed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LatencyHistogram batchLatency = new LatencyHistogram();
+    private final Map<String, LongAdder> errorMessages = new ConcurrentHashMap<>();
+    private final List<Map<String, Object>> failures = Collections.synchronizedList(new ArrayList<>());
+
+    public PeriodicIterate(GraphDatabaseService db, Log log, String procedureName, int batchSize, int concurrency, int retries) {
+        this.db = db;
+        this.log = log;
+        this.procedureName = procedureName;
+        this.batchSize = batchSize;
+        this.concurrency = concurrency;
+        this.retries = retries;
+    }
+
+    public IterateResult run(Iterator<Map<String, Object>> rows) {
+        long start = System.nanoTime();
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "js-procedure-iterate-" + THREADS.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Semaphore running = new Semaphore(concurrency);
+        try {
+            long index = 0;
+            while (rows.hasNext()) {
+                List<Map<String, Object>> batch = new ArrayList<>(batchSize);
+                while (batch.size() < batchSize && rows.hasNext()) {
+                    batch.add(rows.next());
+                }
+                long batchIndex = index++;
+                running.acquire();
+                try {
+                    workers.execute(() -> {
+                        try {
+                            runBatch(batchIndex, batch);
+                        } finally {
+                            running.release();
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    running.release();
+                    throw e;
+                }
+            }
+            // Wait for the batches still running.
+            running.acquire(concurrency);
+            running.release(concurrency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while iterating " + procedureName, e);
+        } finally {
+            workers.shutdownNow();
+        }
+
+        Map<String, Object> messages = new HashMap<>();
+        errorMessages.forEach((message, count) -> messages.put(message, count.sum()));
+        return new IterateResult(batches.sum(), total.sum(), committed.sum(), failed.sum(), failedBatches.sum(), retried.sum(),
+                (System.nanoTime() - start) / 1_000_000, ProcedureMetrics.summary(batchLatency), messages, new ArrayList<>(failures));
+    }
+
+    private void runBatch(long index, List<Map<String, Object>> rows) {
+        long start = System.nanoTime();
+        batches.increment();
+        total.add(rows.size());
+        Exception error = null;
+        for (int attempt = 0; attempt <= retries; attempt++) {
+            if (attempt > 0) {
+                retried.increment();
+            }
+            try (Transaction tx = db.beginTx()) {
+                ScriptDetails details = StoredProcedureEngine.getStoredProcedureEngine(null).getEngine(db, tx, procedureName);
+                if (details == null) {
+                    throw new IllegalStateException("Procedure doesn't exist or cannot be loaded into ScriptEngine.");
+                }
+                try {
+                    Map<String, Object> parameters = new HashMap<>();
+                    parameters.put("batch", rebind(tx, rows));
+                    parameters.put("txn", tx);
+                    parameters.put("log", log);
+                    details.invoke(parameters);
+                } finally {
+                    details.release();
+                }
+                tx.commit();
+                committed.add(rows.size());
+                batchLatency.record(System.nanoTime() - start);
+                return;
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+        log.warn(String.format("Batch %d of %s failed after %d attempts: %s", index, procedureName, retries + 1, error.getMessage()));
+        failed.add(rows.size());
+        failedBatches.increment();
+        String message = String.valueOf(error.getMessage());
+        errorMessages.computeIfAbsent(message, key -> new LongAdder()).increment();
+        synchronized (failures) {
+            if (failures.size() < MAX_FAILURES) {
+                Map<String, Object> failure = new LinkedHashMap<>();
+                failure.put("batch", index);
+                failure.put("rows", rows.size());
+                failure.put("attempts", retries + 1);
+                failure.put("error", message);
+                failures.add(failure);
+            }
+        }
+        batchLatency.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Entities of the source rows belong to the transaction of the caller and have to be looked up again
+     * in the transaction of the batch.
+     */
+    private static Object rebind(Transaction tx, Object value) {
+        if (value instanceof Node) {
+            return tx.getNodeByElementId(((Node) value).getElementId());
+        } else if (value instanceof Relationship) {
+            return tx.getRelationshipByElementId(((Relationship) value).getElementId());
+        } else if (value instanceof List) {
+            List<Object> list = new ArrayList<>(((List<?>) value).size());
+            for (Object element : (List<?>) value) {
+                list.add(rebind(tx, element));
+            }
+            return list;
+        } else if (value instanceof Map) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                map.put(entry.getKey().toString(), rebind(tx, entry.getValue()));
+            }
+            return map;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,147 @@
+package jsproc.neo4j;
+
+import org.neo4j.logging.Log;
+
+import javax.script.ScriptEngine;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Nashorn's persistent code cache in a managed directory under the data directory, so a restart loads the class
+ * files of the stored scripts instead of compiling them again. Nashorn names the entries by a digest of the source,
+ * i.e. of the instrumented script, and keeps them per Nashorn version. Class files compiled with other engine
+ * options can't be reused, so every set of options gets its own directory. Nashorn only stores scripts of at least
+ * 1000 characters; shorter ones are cheap to compile anyway.
+ * <p>
+ * Nashorn never deletes entries and doesn't touch them when they are loaded. {@link #cleanUp()} removes the
+ * entries of older Nashorn versions and, beyond the maximum size, the oldest entries first.
+ */
+public class PersistentCodeCache {
+
+    public static final String OPTION = "--persistent-code-cache";
+    private static final String DIRECTORY_PROPERTY = "nashorn.persistent.code.cache";
+
+    private final Path root;
+    private final long maxSize;
+    private final Log log;
+
+    public PersistentCodeCache(Path dataDirectory, long maxSize, Log log) {
+        this.root = dataDirectory.resolve("js-procedures").resolve("code-cache");
+        this.maxSize = maxSize;
+        this.log = log;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Creates an engine storing its compiled scripts in the directory of its options. Nashorn reads the
+     * directory from a system property when the engine is created, so creations are serialized.
+     */
+    public ScriptEngine newEngine(Function<String[], ScriptEngine> factory, String... options) {
+        Path directory = root.resolve(ScriptDefinition.checkSum(String.join(" ", options)).substring(0, 12).toLowerCase());
+        String[] engineOptions = Stream.concat(Stream.of(options), Stream.of(OPTION)).toArray(String[]::new);
+        synchronized (PersistentCodeCache.class) {
+            String previous = System.getProperty(DIRECTORY_PROPERTY);
+            try {
+                Files.createDirectories(directory);
+                System.setProperty(DIRECTORY_PROPERTY, directory.toString());
+                return factory.apply(engineOptions);
+            } catch (IOException e) {
+                log.warn("Could not create the code cache directory " + directory + ", scripts are compiled on every start", e);
+                return factory.apply(options);
+            } finally {
+                if (previous == null) {
+                    System.clearProperty(DIRECTORY_PROPERTY);
+                } else {
+                    System.setProperty(DIRECTORY_PROPERTY, previous);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the entries of Nashorn versions other than the newest one of every options directory, then the
+     * oldest entries until the cache fits into its maximum size.
+     */
+    public synchronized void cleanUp() {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        try {
+            List<Path> entries = new ArrayList<>();
+            for (Path optionsDirectory : list(root)) {
+                List<Path> versions = list(optionsDirectory);
+                // Nashorn creates the directory of its version with the engine, so the newest one is in use.
+                Path current = versions.stream().max(Comparator.comparingLong(PersistentCodeCache::lastModified)).orElse(null);
+                for (Path version : versions) {
+                    if (version.equals(current)) {
+                        entries.addAll(list(version));
+                    } else {
+                        delete(version);
+                        log.info("Removed stale code cache entries: " + version);
+                    }
+                }
+            }
+
+            long size = entries.stream().mapToLong(PersistentCodeCache::size).sum();
+            if (size > maxSize) {
+                entries.sort(Comparator.comparingLong(PersistentCodeCache::lastModified));
+                int removed = 0;
+                for (Path entry : entries) {
+                    if (size <= maxSize) {
+                        break;
+                    }
+                    size -= size(entry);
+                    Files.deleteIfExists(entry);
+                    removed++;
+                }
+                log.info(String.format("Removed %d code cache entries to stay below %d bytes", removed, maxSize));
+            }
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Could not clean up the code cache " + root, e);
+        }
+    }
+
+    private static List<Path> list(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return new ArrayList<>();
+        }
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.collect(Collectors.toList());
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long size(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package jsproc.neo4j;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Query strings one version of a stored procedure has run through the {@link CypherHelper}, a new script starts
+ * with a new set. Every distinct string is checked once. Queries that only differ in their string and number
+ * literals share a shape; a few variants of a shape are constants of different branches of the script, beyond
+ * {@link #MAX_VARIANTS} the query is built from values and counted as {@code unpreparedQueries} in the metrics of
+ * the procedure. It still runs, Neo4j parameterizes its literals. Beyond {@link #MAX_QUERIES} distinct strings new
+ * ones are no longer tracked but counted as well.
+ */
+public class PreparedQueries {
+
+    public static final int MAX_QUERIES = 256;
+    public static final int MAX_VARIANTS = 8;
+
+    private final String checkSum;
+    private final ProcedureMetrics metrics;
+    private final Set<String> queries = ConcurrentHashMap.newKeySet();
+    // The number of distinct queries of every shape with literals, the shape has the literals blanked out.
+    private final Map<String, Integer> variants = new ConcurrentHashMap<>();
+
+    public PreparedQueries(String checkSum, ProcedureMetrics metrics) {
+        this.checkSum = checkSum;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return whether these are the queries of the script with the checksum
+     */
+    public boolean isFor(String checkSum) {
+        return Objects.equals(this.checkSum, checkSum);
+    }
+
+    public void prepare(String query) {
+        if (queries.contains(query)) {
+            return;
+        }
+        if (queries.size() >= MAX_QUERIES) {
+            metrics.unpreparedQuery();
+            return;
+        }
+        String shape = shape(query);
+        if (shape != null && variants.merge(shape, 1, (count, one) -> Math.min(count + one, MAX_VARIANTS + 1)) > MAX_VARIANTS) {
+            metrics.unpreparedQuery();
+            return;
+        }
+        queries.add(query);
+    }
+
+    public int size() {
+        return queries.size();
+    }
+
+    /**
+     * Blanks out quoted strings and numbers outside of backtick quoted names and comments.
+     *
+     * @return the query with empty string literals and numbers, null if it has none
+     */
+    static String shape(String query) {
+        StringBuilder shape = null;
+        int copied = 0;
+        int length = query.length();
+        for (int i = 0; i < length; i++) {
+            char c = query.charAt(i);
+            if (c == '\'' || c == '"') {
+                int end = i + 1;
+                while (end < length && query.charAt(end) != c) {
+                    end += query.charAt(end) == '\\' ? 2 : 1;
+                }
+                if (shape == null) {
+                    shape = new StringBuilder(length);
+                }
+                shape.append(query, copied, i + 1).append(c);
+                i = Math.min(end, length);
+                copied = Math.min(end + 1, length);
+            } else if (Character.isDigit(c) && (i == 0 || !isNamePart(query.charAt(i - 1)))) {
+                int end = i + 1;
+                while (end < length && (Character.isLetterOrDigit(query.charAt(end)) || query.charAt(end) == '.')) {
+                    end++;
+                }
+                if (shape == null) {
+                    shape = new StringBuilder(length);
+                }
+                shape.append(query, copied, i).append('0');
+                copied = end;
+                i = end - 1;
+            } else if (c == '`') {
+                int end = query.indexOf('`', i + 1);
+                i = end < 0 ? length : end;
+            } else if (c == '/' && i + 1 < length && query.charAt(i + 1) == '/') {
+                int end = query.indexOf('\n', i);
+                i = end < 0 ? length : end;
+            } else if (c == '/' && i + 1 < length && query.charAt(i + 1) == '*') {
+                int end = query.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 1;
+            }
+        }
+        return shape == null ? null : shape.append(query, copied, length).toString();
+    }
+
+    private static boolean isNamePart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+}
@@ -0,0 +1,180 @@
+package jsproc.neo4j;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Always-on counters and latency histograms of one stored procedure.
+ * Latencies are split into engine lookup, JS execution and result conversion. Cypher queries run
+ * by the script through the {@link CypherHelper} are counted separately.
+ */
+public class ProcedureMetrics {
+
+    private final LongAdder invocations = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder aborts = new LongAdder();
+    private final LongAdder compiles = new LongAdder();
+    private final LongAdder warmUps = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LatencyHistogram lookup = new LatencyHistogram();
+    private final LatencyHistogram execution = new LatencyHistogram();
+    private final LatencyHistogram conversion = new LatencyHistogram();
+    private final LatencyHistogram query = new LatencyHistogram();
+    private final LongAdder queryRows = new LongAdder();
+    private final LongAdder unpreparedQueries = new LongAdder();
+
+    public void invoked() {
+        invocations.increment();
+    }
+
+    public void failed() {
+        errors.increment();
+    }
+
+    /**
+     * The invocation ran past its deadline or its transaction was terminated.
+     */
+    public void aborted() {
+        aborts.increment();
+    }
+
+    public void compiled() {
+        compiles.increment();
+    }
+
+    /**
+     * @param invocations the number of invocations replaying samples, which are not counted as invocations
+     */
+    public void warmedUp(long invocations) {
+        warmUps.add(invocations);
+    }
+
+    public void cacheHit() {
+        cacheHits.increment();
+    }
+
+    public void cacheMissed() {
+        cacheMisses.increment();
+    }
+
+    public void recordLookup(long nanos) {
+        lookup.record(nanos);
+    }
+
+    public void recordExecution(long nanos) {
+        execution.record(nanos);
+    }
+
+    public void recordConversion(long nanos) {
+        conversion.record(nanos);
+    }
+
+    public void recordQuery(long nanos) {
+        query.record(nanos);
+    }
+
+    public void recordQueryRows(long rows) {
+        queryRows.add(rows);
+    }
+
+    /**
+     * A query built from values or beyond the cap of distinct query strings of {@link PreparedQueries} ran.
+     */
+    public void unpreparedQuery() {
+        unpreparedQueries.increment();
+    }
+
+    public long getInvocations() {
+        return invocations.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public long getAborts() {
+        return aborts.sum();
+    }
+
+    public long getCompiles() {
+        return compiles.sum();
+    }
+
+    public long getWarmUps() {
+        return warmUps.sum();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    public LatencyHistogram getLookup() {
+        return lookup;
+    }
+
+    public LatencyHistogram getExecution() {
+        return execution;
+    }
+
+    public LatencyHistogram getConversion() {
+        return conversion;
+    }
+
+    public LatencyHistogram getQuery() {
+        return query;
+    }
+
+    public long getQueryRows() {
+        return queryRows.sum();
+    }
+
+    public long getUnpreparedQueries() {
+        return unpreparedQueries.sum();
+    }
+
+    /**
+     * @return percentiles and max of the histogram in microseconds
+     */
+    public static Map<String, Object> summary(LatencyHistogram histogram) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", histogram.getCount());
+        summary.put("p50", histogram.getPercentile(0.5) / 1000);
+        summary.put("p99", histogram.getPercentile(0.99) / 1000);
+        summary.put("max", histogram.getMax() / 1000);
+        return summary;
+    }
+
+    /**
+     * @return all counters and latencies (in microseconds) as a flat map
+     */
+    public Map<String, Long> toMap() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        values.put("invocations", getInvocations());
+        values.put("errors", getErrors());
+        values.put("aborts", getAborts());
+        values.put("compiles", getCompiles());
+        values.put("warmUps", getWarmUps());
+        values.put("cacheHits", getCacheHits());
+        values.put("cacheMisses", getCacheMisses());
+        put(values, "lookup", lookup);
+        put(values, "execution", execution);
+        put(values, "conversion", conversion);
+        values.put("queries", query.getCount());
+        values.put("queryRows", getQueryRows());
+        values.put("unpreparedQueries", getUnpreparedQueries());
+        put(values, "query", query);
+        return values;
+    }
+
+    private static void put(Map<String, Long> values, String prefix, LatencyHistogram histogram) {
+        values.put(prefix + "P50", histogram.getPercentile(0.5) / 1000);
+        values.put(prefix + "P99", histogram.getPercentile(0.99) / 1000);
+        values.put(prefix + "Max", histogram.getMax() / 1000);
+    }
+}
@@ -0,0 +1,49 @@
+package jsproc.neo4j;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times are in microseconds, -1 where the JVM or the transaction doesn't provide the measurement.
+ */
+public class ProfileResult {
+
+    public final String publicName;
+    public final Object result;
+    public final long wallTime;
+    public final long cpuTime;
+    public final long lookupTime;
+    public final boolean compiled;
+    public final long compileTime;
+    public final long executionTime;
+    public final long conversionTime;
+    public final long dbCalls;
+    public final long dbTime;
+    public final long dbRows;
+    public final long pageHits;
+    public final long pageFaults;
+    public final long allocatedBytes;
+    public final long resultSize;
+
+    public ProfileResult(String publicName, Object result, InvocationProfile profile) {
+        this.publicName = publicName;
+        this.result = result;
+        this.wallTime = micros(profile.wallNanos);
+        this.cpuTime = profile.cpuNanos < 0 ? -1 : micros(profile.cpuNanos);
+        this.lookupTime = micros(profile.lookupNanos);
+        this.compiled = profile.compiled;
+        this.compileTime = micros(profile.compileNanos);
+        this.executionTime = micros(profile.executionNanos);
+        this.conversionTime = micros(profile.conversionNanos);
+        this.dbCalls = profile.dbCalls;
+        this.dbTime = micros(profile.dbNanos);
+        this.dbRows = profile.dbRows;
+        this.pageHits = profile.pageHits;
+        this.pageFaults = profile.pageFaults;
+        this.allocatedBytes = profile.allocatedBytes;
+        this.resultSize = profile.resultSize;
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
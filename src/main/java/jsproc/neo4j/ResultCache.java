@@ -0,0 +1,215 @@
+package jsproc.neo4j;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.time.temporal.Temporal;
+import java.time.temporal.TemporalAmount;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Results of a function registered with {@code {cache: {maxSize: 1000, ttl: 60000}}}, keyed by the checksum of its
+ * script and a digest of the canonical form of its parameters. Maps are canonical regardless of their key order and
+ * numbers regardless of their Java type, so {@code {a: 1, b: 2.0}} and {@code {b: 2, a: 1}} share an entry.
+ * Parameters or results holding anything but plain values, e.g. nodes, are not cached. At most maxSize results are
+ * kept and entries older than the ttl are not returned. The entries are held in the Caffeine cache Neo4j ships with,
+ * so lookups don't lock and the least used entries are evicted beyond maxSize.
+ * A re-registered function gets a new cache, see {@link ScriptRegistry#getResultCache}.
+ */
+public class ResultCache {
+
+    static final long DEFAULT_MAX_SIZE = 1000;
+    private static final String MAX_SIZE = "maxSize";
+    private static final String TTL = "ttl";
+    private static final Object NULL = new Object();
+
+    private final String checkSum;
+    private final long maxSize;
+    private final long ttlMillis;
+    private final ProcedureMetrics metrics;
+    private final Cache<String, Object> entries;
+
+    public ResultCache(String checkSum, long maxSize, long ttlMillis, ProcedureMetrics metrics) {
+        this.checkSum = checkSum;
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.metrics = metrics;
+        Caffeine<Object, Object> builder = Caffeine.newBuilder().maximumSize(maxSize)
+                // Evictions run on the invoking threads, the cache doesn't need a pool of its own.
+                .executor(Runnable::run);
+        if (ttlMillis > 0) {
+            builder.expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS);
+        }
+        this.entries = builder.build();
+    }
+
+    /**
+     * @return the maximum number of cached results declared in the config, 0 if results are not cached
+     * @throws IllegalArgumentException if the cache config is invalid
+     */
+    public static long maxSize(Map<String, Object> config) {
+        Object cache = config == null ? null : config.get(StoredProcedureEngine.Cache);
+        if (cache == null || Boolean.FALSE.equals(cache)) {
+            return 0;
+        } else if (Boolean.TRUE.equals(cache)) {
+            return DEFAULT_MAX_SIZE;
+        }
+        Object maxSize = cache instanceof Map ? ((Map<?, ?>) cache).get(MAX_SIZE) : null;
+        if (cache instanceof Map && maxSize == null) {
+            return DEFAULT_MAX_SIZE;
+        }
+        if (!(maxSize instanceof Number) || ((Number) maxSize).longValue() <= 0) {
+            throw invalid();
+        }
+        return ((Number) maxSize).longValue();
+    }
+
+    /**
+     * @return the time to live of cached results declared in the config in milliseconds, 0 for no limit
+     */
+    public static long ttlMillis(Map<String, Object> config) {
+        Object cache = config == null ? null : config.get(StoredProcedureEngine.Cache);
+        Object ttl = cache instanceof Map ? ((Map<?, ?>) cache).get(TTL) : null;
+        if (ttl == null) {
+            return 0;
+        }
+        if (!(ttl instanceof Number) || ((Number) ttl).longValue() < 0) {
+            throw invalid();
+        }
+        return ((Number) ttl).longValue();
+    }
+
+    private static IllegalArgumentException invalid() {
+        return new IllegalArgumentException("The cache must be true or a map of a positive maxSize and a ttl in milliseconds.");
+    }
+
+    /**
+     * @return whether this cache holds the results of the script with these settings
+     */
+    public boolean isFor(String checkSum, long maxSize, long ttlMillis) {
+        return Objects.equals(this.checkSum, checkSum) && this.maxSize == maxSize && this.ttlMillis == ttlMillis;
+    }
+
+    /**
+     * @param parameters the parameters of an invocation, {@code txn} and {@code log} are ignored
+     * @return the key of the invocation, null if its parameters can't be cached
+     */
+    public String key(Map<String, Object> parameters) {
+        StringBuilder canonical = new StringBuilder();
+        Map<String, Object> sorted = new TreeMap<>(parameters);
+        sorted.remove("txn");
+        sorted.remove("log");
+        if (!canonical(sorted, canonical)) {
+            return null;
+        }
+        return checkSum + ":" + ScriptDefinition.checkSum(canonical.toString());
+    }
+
+    /**
+     * Counts a hit or a miss.
+     *
+     * @return the cached result, see {@link #isNull(Object)} for a cached null, or null if there is none
+     */
+    public Object get(String key) {
+        Object result = entries.getIfPresent(key);
+        if (result == null) {
+            metrics.cacheMissed();
+        } else {
+            metrics.cacheHit();
+        }
+        return result;
+    }
+
+    /**
+     * @return the key of an invocation that missed the cache because the script was outdated before its lookup,
+     * null if its parameters can't be cached
+     */
+    public String missedKey(Map<String, Object> parameters) {
+        String key = key(parameters);
+        if (key != null) {
+            metrics.cacheMissed();
+        }
+        return key;
+    }
+
+    /**
+     * Caches the result of an invocation converted with {@link ScriptValueConverter#toJava}, unless it holds
+     * values that are bound to its transaction.
+     */
+    public void put(String key, Object result) {
+        if (!isPlain(result)) {
+            return;
+        }
+        entries.put(key, result == null ? NULL : result);
+    }
+
+    public static boolean isNull(Object cached) {
+        return cached == NULL;
+    }
+
+    public long size() {
+        return entries.estimatedSize();
+    }
+
+    private static boolean canonical(Object value, StringBuilder canonical) {
+        if (value == null) {
+            canonical.append('n');
+        } else if (value instanceof String) {
+            canonical.append('s').append(((String) value).length()).append(':').append(value);
+        } else if (value instanceof Boolean) {
+            canonical.append((Boolean) value ? 't' : 'f');
+        } else if (value instanceof Number) {
+            // Scripts see every number as a double, so 1, 1L and 1.0 are the same parameter.
+            double number = ((Number) value).doubleValue();
+            if (number == Math.rint(number) && Math.abs(number) < 0x1p53) {
+                canonical.append('i').append((long) number);
+            } else if (value instanceof Long) {
+                canonical.append('i').append(value);
+            } else {
+                canonical.append('d').append(number);
+            }
+        } else if (value instanceof Temporal || value instanceof TemporalAmount) {
+            canonical.append('T').append(value.getClass().getSimpleName()).append(':').append(value);
+        } else if (value instanceof List) {
+            canonical.append('[');
+            for (Object element : (List<?>) value) {
+                if (!canonical(element, canonical)) {
+                    return false;
+                }
+                canonical.append(',');
+            }
+            canonical.append(']');
+        } else if (value instanceof Map) {
+            if (!((Map<?, ?>) value).keySet().stream().allMatch(key -> key instanceof String)) {
+                return false;
+            }
+            canonical.append('{');
+            for (Map.Entry<?, ?> entry : new TreeMap<>((Map<?, ?>) value).entrySet()) {
+                if (!canonical(entry.getKey(), canonical) || !canonical(entry.getValue(), canonical)) {
+                    return false;
+                }
+            }
+            canonical.append('}');
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean isPlain(Object value) {
+        if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean
+                || value instanceof Temporal || value instanceof TemporalAmount || value instanceof long[] || value instanceof double[]) {
+            return true;
+        } else if (value instanceof Collection) {
+            return ((Collection<?>) value).stream().allMatch(ResultCache::isPlain);
+        } else if (value instanceof Map) {
+            return ((Map<?, ?>) value).values().stream().allMatch(ResultCache::isPlain);
+        }
+        return false;
+    }
+}
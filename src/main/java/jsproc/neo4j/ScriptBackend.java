@@ -0,0 +1,62 @@
+package jsproc.neo4j;
+
+import org.neo4j.annotations.service.Service;
+
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+/**
+ * A JavaScript implementation behind the JSR-223 API. Scripts are compiled through {@link javax.script.Compilable}
+ * and evaluated into pooled globals the same way for every backend; only creating the shared engines and calling a
+ * function of a global is backend specific. Backends are found with the {@link java.util.ServiceLoader}, see
+ * {@link ScriptBackends}.
+ */
+@Service
+public interface ScriptBackend {
+
+    String getName();
+
+    /**
+     * Parses a script the way this backend reads it, without running it.
+     */
+    ScriptOutline outline(String name, String script);
+
+    /**
+     * @return the script as it is compiled, with the checks of the {@link InvocationGuard} if the backend relies on them
+     */
+    String instrument(String script);
+
+    /**
+     * Creates an engine shared by all pooled globals of a profile. Java class lookups must be restricted
+     * by the {@link ScriptClassFilter}.
+     *
+     * @param codeCache null if compiled scripts are not kept on disk
+     */
+    ScriptEngine newEngine(EngineProfile profile, PersistentCodeCache codeCache);
+
+    /**
+     * Calls a function declared in the global of a pooled engine.
+     *
+     * @return the result as Java object or as script object the {@link ScriptValueConverter} understands, null for undefined
+     * @throws ScriptException if the script failed
+     */
+    Object call(ScriptContext global, String functionName, Object... args) throws ScriptException, NoSuchMethodException;
+
+    /**
+     * @return whether an engine of this backend compiles scripts on several threads at once
+     */
+    boolean compilesConcurrently();
+
+    /**
+     * Converts a value a script passed to a helper the way {@link ScriptValueConverter#toJava(Object)} converts
+     * results, so the helpers see the same Java values whatever the backend.
+     */
+    Object toJava(Object value);
+
+    /**
+     * @param function a value a script passed to a helper
+     * @return the source of the function, null if the value isn't a script function
+     */
+    String functionSource(Object function);
+}
@@ -0,0 +1,65 @@
+package jsproc.neo4j;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.TreeMap;
+
+/**
+ * The installed {@link ScriptBackend}s. A backend whose runtime is missing fails its service lookup and is skipped.
+ * Scripts registered without a backend in their config use the default of dbms.js.procedure.default_backend.
+ */
+public final class ScriptBackends {
+
+    private static final Map<String, ScriptBackend> BACKENDS = load();
+    private static volatile ScriptBackend defaultBackend = BACKENDS.get(NashornBackend.NAME);
+
+    private ScriptBackends() {
+    }
+
+    private static Map<String, ScriptBackend> load() {
+        Map<String, ScriptBackend> backends = new TreeMap<>();
+        backends.put(NashornBackend.NAME, new NashornBackend());
+        Iterator<ScriptBackend> services = ServiceLoader.load(ScriptBackend.class, ScriptBackend.class.getClassLoader()).iterator();
+        while (true) {
+            try {
+                if (!services.hasNext()) {
+                    break;
+                }
+                ScriptBackend backend = services.next();
+                backends.putIfAbsent(backend.getName(), backend);
+            } catch (ServiceConfigurationError | LinkageError e) {
+                // Not installed.
+            }
+        }
+        return backends;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the backend isn't installed
+     */
+    public static ScriptBackend of(String name) {
+        ScriptBackend backend = BACKENDS.get(name.toLowerCase());
+        if (backend == null) {
+            throw new IllegalArgumentException(String.format("Unknown backend '%s', installed are %s", name, String.join(", ", BACKENDS.keySet())));
+        }
+        return backend;
+    }
+
+    /**
+     * @return the backend named in the config, null for the default backend
+     */
+    public static ScriptBackend of(Map<String, Object> config) {
+        Object backend = config == null ? null : config.get(StoredProcedureEngine.Backend);
+        return backend == null ? null : of(backend.toString());
+    }
+
+    public static ScriptBackend getDefault() {
+        return defaultBackend;
+    }
+
+    static void setDefault(ScriptBackend backend) {
+        defaultBackend = backend;
+    }
+}
@@ -0,0 +1,99 @@
+package jsproc.neo4j;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.event.LabelEntry;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventListener;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Watches committed transactions for changes to script, function and procedure lock nodes and
+ * bumps the script version of the database, so invocations pick up the change right after commit.
+ * Scripts written by the transaction are compiled in the background after the commit. Only the
+ * properties these nodes are written with are looked at, other writes don't pay for label lookups.
+ */
+public class ScriptChangeListener implements TransactionEventListener<List<StoredProcedureEngine.ScriptSource>> {
+
+    private static final Label[] WATCHED_LABELS = {
+            StoredProcedureEngine.JS_StoredProcedure,
+            StoredProcedureEngine.JS_FUNCTION,
+            StoredProcedureEngine.JS_ProcedureLock
+    };
+
+    private static final Set<String> WATCHED_KEYS = Set.of(
+            StoredProcedureEngine.PublicName, StoredProcedureEngine.FunctionName, StoredProcedureEngine.Script,
+            StoredProcedureEngine.CheckSum, StoredProcedureEngine.LastReadTime, StoredProcedureEngine.LastUpdatedime,
+            StoredProcedureEngine.LoadOnStartup, StoredProcedureEngine.LoadInterval, StoredProcedureEngine.Mode,
+            StoredProcedureEngine.Inputs, StoredProcedureEngine.Outputs, StoredProcedureEngine.Timeout,
+            StoredProcedureEngine.Profile, StoredProcedureEngine.Backend, StoredProcedureEngine.Hot,
+            StoredProcedureEngine.WarmUpSamples, StoredProcedureEngine.CacheSize, StoredProcedureEngine.CacheTtl,
+            StoredProcedureEngine.BasicDBClasses, StoredProcedureEngine.OtherClasses
+    );
+
+    /**
+     * @return null if no watched node changed, otherwise the scripts written by the transaction
+     */
+    @Override
+    public List<StoredProcedureEngine.ScriptSource> beforeCommit(TransactionData data, Transaction transaction, GraphDatabaseService databaseService) {
+        boolean changed = false;
+        List<StoredProcedureEngine.ScriptSource> scripts = new ArrayList<>();
+        for (LabelEntry entry : data.assignedLabels()) {
+            changed |= isWatched(entry.label());
+        }
+        for (LabelEntry entry : data.removedLabels()) {
+            changed |= isWatched(entry.label());
+        }
+        for (PropertyEntry<Node> entry : data.assignedNodeProperties()) {
+            if (WATCHED_KEYS.contains(entry.key()) && isWatched(entry.entity())) {
+                changed = true;
+                if (StoredProcedureEngine.Script.equals(entry.key()) && !data.isDeleted(entry.entity())
+                        && !entry.entity().hasLabel(StoredProcedureEngine.JS_ProcedureLock)) {
+                    scripts.add(new StoredProcedureEngine.ScriptSource(entry.entity()));
+                }
+            }
+        }
+        for (PropertyEntry<Node> entry : data.removedNodeProperties()) {
+            changed |= WATCHED_KEYS.contains(entry.key()) && !data.isDeleted(entry.entity()) && isWatched(entry.entity());
+        }
+        return changed ? scripts : null;
+    }
+
+    @Override
+    public void afterCommit(TransactionData data, List<StoredProcedureEngine.ScriptSource> scripts, GraphDatabaseService databaseService) {
+        if (scripts != null) {
+            UpdatedStatus.getInstance(databaseService).scriptsChanged();
+            StoredProcedureEngine.getStoredProcedureEngine(null).scriptsCommitted((GraphDatabaseAPI) databaseService, scripts);
+        }
+    }
+
+    @Override
+    public void afterRollback(TransactionData data, List<StoredProcedureEngine.ScriptSource> scripts, GraphDatabaseService databaseService) {
+        // Scripts are only loaded from committed transactions, see StoredProcedureEngine#loadProcedure.
+    }
+
+    private static boolean isWatched(Label label) {
+        for (Label watched : WATCHED_LABELS) {
+            if (watched.name().equals(label.name())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isWatched(Node node) {
+        for (Label watched : WATCHED_LABELS) {
+            if (node.hasLabel(watched)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
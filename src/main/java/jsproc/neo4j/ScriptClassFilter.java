@@ -0,0 +1,131 @@
+package jsproc.neo4j;
+
+import org.openjdk.nashorn.api.scripting.ClassFilter;
+import org.openjdk.nashorn.api.tree.ExpressionTree;
+import org.openjdk.nashorn.api.tree.FunctionCallTree;
+import org.openjdk.nashorn.api.tree.IdentifierTree;
+import org.openjdk.nashorn.api.tree.LiteralTree;
+import org.openjdk.nashorn.api.tree.MemberSelectTree;
+import org.openjdk.nashorn.api.tree.Parser;
+import org.openjdk.nashorn.api.tree.SimpleTreeVisitorES6;
+import org.openjdk.nashorn.api.tree.Tree;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The Java classes scripts can reach. Only the classes looked up by the required class definitions of the database
+ * of the running script are exposed. The engines are shared by all databases, so the filter checks a lookup against
+ * the database of the invocation on the current thread, see {@link InvocationGuard.Invocation#getDatabaseName()},
+ * or the one entered with {@link #enter(String)}. Lookups outside of both are refused.
+ * The engines ask the filter whenever a script looks up a class, whether through Java.type, Packages or the java
+ * package objects, so class names built at runtime are caught as well. Registration only rejects the literal
+ * Java.type lookups of a script early.
+ */
+public class ScriptClassFilter implements ClassFilter {
+
+    public static final ScriptClassFilter FILTER = new ScriptClassFilter();
+
+    private static final ThreadLocal<String> DATABASE = new ThreadLocal<>();
+
+    private final Map<String, Set<String>> exposedByDatabase = new ConcurrentHashMap<>();
+
+    private ScriptClassFilter() {
+    }
+
+    @Override
+    public boolean exposeToScripts(String className) {
+        String databaseName = DATABASE.get();
+        if (databaseName == null) {
+            InvocationGuard.Invocation invocation = InvocationGuard.current();
+            databaseName = invocation == null ? null : invocation.getDatabaseName();
+        }
+        return isExposed(databaseName, className);
+    }
+
+    private boolean isExposed(String databaseName, String className) {
+        Set<String> exposed = databaseName == null ? null : exposedByDatabase.get(databaseName);
+        // Nested classes are looked up as Outer.Inner and Outer$Inner.
+        return exposed != null && exposed.contains(className.replace('$', '.'));
+    }
+
+    /**
+     * Checks the lookups of the current thread against the classes of the database until {@link #exit(String)},
+     * e.g. while an engine evaluates the required class definitions of its database.
+     *
+     * @return the database to restore
+     */
+    public String enter(String databaseName) {
+        String previous = DATABASE.get();
+        DATABASE.set(databaseName);
+        return previous;
+    }
+
+    public void exit(String previous) {
+        if (previous == null) {
+            DATABASE.remove();
+        } else {
+            DATABASE.set(previous);
+        }
+    }
+
+    /**
+     * Exposes the classes the required class definitions of the database look up with Java.type, instead of the
+     * ones of its definitions loaded before.
+     */
+    public void expose(String databaseName, Collection<String> classTexts) {
+        Set<String> classNames = new HashSet<>();
+        for (String classText : classTexts) {
+            Tree tree = Parser.create().parse("requiredClasses", classText, diagnostic -> { });
+            if (tree != null) {
+                for (String className : javaTypes(tree)) {
+                    classNames.add(className.replace('$', '.'));
+                }
+            }
+        }
+        exposedByDatabase.put(databaseName, Collections.unmodifiableSet(classNames));
+    }
+
+    /**
+     * @param classNames the classes a script looks up with a literal Java.type, see {@link ScriptOutline#javaTypes}
+     * @return the first of the classes that isn't exposed to the database, null if there is none
+     */
+    public String findHidden(String databaseName, Collection<String> classNames) {
+        for (String className : classNames) {
+            if (!isExposed(databaseName, className)) {
+                return className;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the classes looked up with a literal Java.type in the Nashorn tree
+     */
+    static List<String> javaTypes(Tree tree) {
+        List<String> classNames = new ArrayList<>();
+        tree.accept(new SimpleTreeVisitorES6<Void, Void>() {
+            @Override
+            public Void visitFunctionCall(FunctionCallTree node, Void unused) {
+                ExpressionTree function = node.getFunctionSelect();
+                if (function instanceof MemberSelectTree
+                        && "type".equals(((MemberSelectTree) function).getIdentifier())
+                        && ((MemberSelectTree) function).getExpression() instanceof IdentifierTree
+                        && "Java".equals(((IdentifierTree) ((MemberSelectTree) function).getExpression()).getName())
+                        && !node.getArguments().isEmpty()
+                        && node.getArguments().get(0) instanceof LiteralTree
+                        && ((LiteralTree) node.getArguments().get(0)).getValue() instanceof String) {
+                    classNames.add((String) ((LiteralTree) node.getArguments().get(0)).getValue());
+                }
+                return super.visitFunctionCall(node, unused);
+            }
+        }, null);
+        return classNames;
+    }
+}
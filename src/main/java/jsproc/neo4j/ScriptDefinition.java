@@ -0,0 +1,159 @@
+package jsproc.neo4j;
+
+import org.neo4j.graphdb.Node;
+
+import javax.xml.bind.DatatypeConverter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A script to register, parsed by its backend, validated and hashed without touching the database. Digests are
+ * kept per thread, so definitions can be built in parallel. If the script is not valid only {@link #error} is set.
+ */
+public class ScriptDefinition {
+
+    private static final ThreadLocal<MessageDigest> MESSAGE_DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
+    public final String script;
+    public final String publicName;
+    public final Map<String, Object> config;
+    public String error;
+    public String name;
+    public String checkSum;
+    public String mode;
+    public String[] inputs;
+    public String[] outputs;
+    public long timeout;
+    public EngineProfile profile = EngineProfile.DEFAULT;
+    // null for the default backend
+    public ScriptBackend backend;
+    public boolean hot;
+    // JSON, null if no samples were declared
+    public String warmUpSamples;
+    // 0 if the results are not cached
+    public long cacheSize;
+    public long cacheTtl;
+
+    private ScriptDefinition(String script, String publicName, Map<String, Object> config) {
+        this.script = script;
+        this.publicName = publicName;
+        this.config = config;
+    }
+
+    /**
+     * @param databaseName the database the script is registered in, its literal Java.type lookups are checked against its classes
+     * @param procedure whether the mode, inputs and outputs of the config are checked as a procedure signature
+     */
+    public static ScriptDefinition of(String databaseName, String script, String publicName, Map<String, Object> config, boolean procedure) {
+        ScriptDefinition definition = new ScriptDefinition(script, publicName, config);
+        try {
+            definition.backend = ScriptBackends.of(config);
+        } catch (IllegalArgumentException e) {
+            return definition.failed(e.getMessage());
+        }
+        ScriptBackend parsedFor = definition.backend == null ? ScriptBackends.getDefault() : definition.backend;
+        ScriptOutline outline = parsedFor.outline(publicName, script);
+
+        if(outline.error != null) {
+            // There is some parse error.
+            return definition.failed(outline.error);
+        }
+        if(outline.functionName == null) {
+            return definition.failed("There must exist exactly one JS function per register request.");
+        } else if (outline.parameterCount != 1) {
+            return definition.failed("There must be exactly one parameter in JS function.");
+        } else if(ScriptClassFilter.FILTER.findHidden(databaseName, outline.javaTypes) != null) {
+            return definition.failed("Only predefined Java.type can be used in JS function.");
+        } else if(ScriptEnginePool.isReserved(outline.functionName)) {
+            return definition.failed(String.format("The function name %s is reserved for the helpers.", outline.functionName));
+        }
+        definition.name = outline.functionName;
+        try {
+            if (procedure) {
+                definition.mode = JSProcedure.mode(config);
+                definition.inputs = JSProcedure.fields(config, StoredProcedureEngine.Inputs);
+                definition.outputs = JSProcedure.fields(config, StoredProcedureEngine.Outputs);
+                JSProcedure.signature(publicName, definition.mode, definition.inputs, definition.outputs);
+            }
+            definition.timeout = timeout(config);
+            definition.profile = EngineProfile.of(config);
+            definition.hot = ScriptWarmUp.isHot(config);
+            definition.warmUpSamples = ScriptWarmUp.declaredSamples(config);
+            if (procedure && definition.hot && !ScriptWarmUp.canWarmUp(false, definition.mode)) {
+                throw new IllegalArgumentException("Only functions and READ procedures can be warmed up.");
+            }
+            definition.cacheSize = ResultCache.maxSize(config);
+            definition.cacheTtl = ResultCache.ttlMillis(config);
+            if (procedure && definition.cacheSize > 0) {
+                throw new IllegalArgumentException("Only the results of functions can be cached.");
+            }
+        } catch (IllegalArgumentException e) {
+            return definition.failed(e.getMessage());
+        }
+        definition.checkSum = checkSum(script);
+        return definition;
+    }
+
+    public static String checkSum(String script) {
+        return DatatypeConverter.printHexBinary(MESSAGE_DIGEST.get().digest(script.getBytes(StandardCharsets.UTF_8))).toUpperCase();
+    }
+
+    public boolean isValid() {
+        return error == null;
+    }
+
+    /**
+     * @return whether the node already holds this script and, if a config was given, the same settings
+     */
+    public boolean isUnchanged(Node n) {
+        if(!String.valueOf(n.getProperty(StoredProcedureEngine.CheckSum)).equals(checkSum)) {
+            return false;
+        }
+        if(config == null) {
+            return true;
+        }
+        boolean sameSettings = ((Number) n.getProperty(StoredProcedureEngine.Timeout, 0L)).longValue() == timeout
+                && profile.getName().equals(n.getProperty(StoredProcedureEngine.Profile, EngineProfile.DEFAULT.getName()))
+                && Objects.equals(backend == null ? null : backend.getName(), n.getProperty(StoredProcedureEngine.Backend, null))
+                && hot == Boolean.TRUE.equals(n.getProperty(StoredProcedureEngine.Hot, false))
+                && Objects.equals(warmUpSamples, n.getProperty(StoredProcedureEngine.WarmUpSamples, null))
+                && cacheSize == ((Number) n.getProperty(StoredProcedureEngine.CacheSize, 0L)).longValue()
+                && cacheTtl == ((Number) n.getProperty(StoredProcedureEngine.CacheTtl, 0L)).longValue();
+        if(mode == null) {
+            return sameSettings;
+        }
+        return sameSettings
+                && mode.equals(n.getProperty(StoredProcedureEngine.Mode, org.neo4j.procedure.Mode.WRITE.name()))
+                && Arrays.equals(inputs, (String[]) n.getProperty(StoredProcedureEngine.Inputs, new String[0]))
+                && Arrays.equals(outputs, (String[]) n.getProperty(StoredProcedureEngine.Outputs, new String[0]));
+    }
+
+    /**
+     * @return the execution deadline of the config in milliseconds, 0 for none
+     */
+    private static long timeout(Map<String, Object> config) {
+        Object timeout = config == null ? null : config.get(StoredProcedureEngine.Timeout);
+        if(timeout == null) {
+            return 0;
+        }
+        if(!(timeout instanceof Number) || ((Number) timeout).longValue() < 0) {
+            throw new IllegalArgumentException("The timeout must be a number of milliseconds, 0 for no limit.");
+        }
+        return ((Number) timeout).longValue();
+    }
+
+    private ScriptDefinition failed(String error) {
+        this.error = error;
+        return this;
+    }
+}
@@ -1,21 +1,42 @@
 package jsproc.neo4j;
 
-import javax.script.ScriptEngine;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+
+import javax.script.ScriptContext;
+import javax.script.ScriptException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Supplier;
 
 public class ScriptDetails {
 
-    private ScriptEngine engine;
+    private ScriptEnginePool pool;
+    private ScriptEnginePool.PooledEngine engine;
+    private ScriptBackend backend = ScriptBackends.getDefault();
     private String publicName;
     private String name;
+    private ProcedureMetrics metrics;
+    private PreparedQueries queries;
+    private Transaction tx;
+    private long timeoutMillis;
+    private ScriptWarmUp.Samples samples;
+    private ResultCache resultCache;
+    private InvocationGuard.Invocation invocation;
 
-    public ScriptEngine getEngine() {
+    public ScriptEnginePool.PooledEngine getEngine() {
         return engine;
     }
 
-    public void setEngine(ScriptEngine engine) {
+    public void setEngine(ScriptEnginePool pool, ScriptEnginePool.PooledEngine engine) {
+        this.pool = pool;
         this.engine = engine;
     }
 
+    public void setBackend(ScriptBackend backend) {
+        this.backend = backend;
+    }
+
     public String getPublicName() {
         return publicName;
     }
@@ -32,4 +53,129 @@ public class ScriptDetails {
         this.name = name;
     }
 
+    public ProcedureMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(ProcedureMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @param samples where the parameters of hot scripts are captured for their warm-up, null for other scripts
+     */
+    public void setSamples(ScriptWarmUp.Samples samples) {
+        this.samples = samples;
+    }
+
+    /**
+     * @return the result cache of a function whose results are cached, null otherwise
+     */
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    public void setResultCache(ResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    public PreparedQueries getQueries() {
+        return queries;
+    }
+
+    /**
+     * Opens the scope of the {@code cypher}, {@code graph} and {@code parallel} helpers of the engine on the transaction of this invocation.
+     */
+    public void bind(GraphDatabaseService db, Transaction tx, PreparedQueries queries) {
+        this.tx = tx;
+        this.queries = queries;
+        engine.getScope().open(db, tx, queries, metrics, name, publicName, backend);
+    }
+
+    public Object invoke(Object... args) throws ScriptException, NoSuchMethodException {
+        ScriptContext global = engine.getContext(name);
+        long start = System.nanoTime();
+        metrics.invoked();
+        if (samples != null && args.length == 1 && args[0] instanceof Map) {
+            samples.capture((Map<?, ?>) args[0]);
+        }
+        InvocationGuard.Invocation invocation = InvocationGuard.enter(publicName, timeoutMillis, tx);
+        this.invocation = invocation;
+        try {
+            return backend.call(global, name, args);
+        } catch (ScriptException | RuntimeException e) {
+            failed(e);
+            throw e;
+        } finally {
+            invocation.exit();
+            metrics.recordExecution(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @param result what {@link #invoke} returned
+     * @return the rows of the result, iterators and generators are pulled under the deadline and the transaction of the invocation
+     */
+    public Iterator<?> rows(Object result) {
+        Iterator<?> rows = ScriptResultIterator.of(result);
+        InvocationGuard.Invocation invoked = invocation;
+        if (invoked == null || !ScriptResultIterator.isLazy(result)) {
+            return rows;
+        }
+        return new Iterator<Object>() {
+            @Override
+            public boolean hasNext() {
+                return pull(invoked, rows::hasNext);
+            }
+
+            @Override
+            public Object next() {
+                return pull(invoked, rows::next);
+            }
+        };
+    }
+
+    private <T> T pull(InvocationGuard.Invocation invoked, Supplier<T> fetch) {
+        InvocationGuard.Invocation pulling = InvocationGuard.enter(invoked);
+        try {
+            if (pulling.isAborted()) {
+                throw pulling.abortException();
+            }
+            return fetch.get();
+        } catch (RuntimeException e) {
+            failed(e);
+            throw e;
+        } finally {
+            pulling.exit();
+        }
+    }
+
+    private void failed(Exception e) {
+        metrics.failed();
+        if (InvocationGuard.isAbort(e)) {
+            metrics.aborted();
+        }
+    }
+
+    /**
+     * Hands the borrowed engine back to its pool. Must be called once the invocation is done.
+     */
+    public void release() {
+        if (engine != null) {
+            engine.getScope().close();
+            pool.release(engine);
+            engine = null;
+            tx = null;
+            invocation = null;
+        }
+    }
+
 }
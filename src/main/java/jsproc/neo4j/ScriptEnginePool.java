@@ -0,0 +1,354 @@
+package jsproc.neo4j;
+
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.impl.coreapi.InternalTransaction;
+import org.neo4j.logging.Log;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of isolated script globals for one database. Every pooled engine has its own
+ * global scope on top of a shared Nashorn engine, so concurrent invocations never share state.
+ * Engines are warmed with the required class definitions and brought up to date with the
+ * loaded scripts every time they are borrowed. Scripts are compiled once through the
+ * {@link CompiledScriptCache} and only evaluated into each engine's global. Scripts compiled
+ * with another {@link EngineProfile} are evaluated into a global of their own engine.
+ * A transaction that already holds an engine, e.g. a stored function called from the queries of a script or
+ * from the rows of an open stream, gets the same engine back, so nested invocations never wait for the pool.
+ */
+public class ScriptEnginePool {
+
+    public static final String CYPHER = "cypher";
+    public static final String GRAPH = "graph";
+    public static final String PARALLEL = "parallel";
+    private static final Set<String> RESERVED = Set.of(CYPHER, GRAPH, PARALLEL, InvocationGuard.NAME);
+    private static final String RESERVED_PREFIX = "__jsproc_";
+    private static final long WAIT_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final String databaseName;
+    private final ScriptEngine engine;
+    private final List<String> requiredClassTexts;
+    private final Map<ScriptEngine, List<CompiledScript>> requiredClasses = new ConcurrentHashMap<>();
+    private final int size;
+    private final long waitMillis;
+    private final Log log;
+
+    private final BlockingQueue<PooledEngine> idle = new LinkedBlockingQueue<>();
+    private final AtomicInteger created = new AtomicInteger();
+    private final Map<Object, PooledEngine> holders = new ConcurrentHashMap<>();
+    private final Map<String, CompiledScript> scripts = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+
+    public ScriptEnginePool(String databaseName, CompiledScriptCache compiledScriptCache, List<String> requiredClasses, int size, long waitMillis, Log log) {
+        this.databaseName = databaseName;
+        this.engine = compiledScriptCache.getEngine();
+        this.requiredClassTexts = requiredClasses;
+        this.size = size;
+        this.waitMillis = waitMillis;
+        this.log = log;
+        requiredClasses(engine);
+    }
+
+    private List<CompiledScript> requiredClasses(ScriptEngine scriptEngine) {
+        return requiredClasses.computeIfAbsent(scriptEngine, key -> {
+            List<CompiledScript> compiled = new ArrayList<>();
+            for (String classText : requiredClassTexts) {
+                try {
+                    compiled.add(((Compilable) key).compile(classText));
+                } catch (ScriptException e) {
+                    log.error("Could not load required class definitions due to eval error. See message", e);
+                }
+            }
+            return compiled;
+        });
+    }
+
+    /**
+     * @return whether a stored function with the name would replace a helper bound into the globals
+     */
+    public static boolean isReserved(String functionName) {
+        return RESERVED.contains(functionName) || functionName.startsWith(RESERVED_PREFIX);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Makes a script available to all engines of this pool. Engines pick it up on their next borrow.
+     */
+    public void define(String functionName, CompiledScript script) {
+        scripts.put(functionName, script);
+        version.incrementAndGet();
+    }
+
+    /**
+     * Removes a script from all engines of this pool. Engines drop it on their next borrow.
+     */
+    public void undefine(String functionName) {
+        if (scripts.remove(functionName) != null) {
+            version.incrementAndGet();
+        }
+    }
+
+    public boolean isDefined(String functionName) {
+        return scripts.containsKey(functionName);
+    }
+
+    public int getScriptCount() {
+        return scripts.size();
+    }
+
+    public PooledEngine borrow() {
+        return borrow(null);
+    }
+
+    /**
+     * @param tx the transaction the engine is borrowed on, it gets the engine it already holds back. Null for none.
+     * @throws IllegalStateException if no engine became idle in time
+     */
+    public PooledEngine borrow(Transaction tx) {
+        Object holder = tx instanceof InternalTransaction ? ((InternalTransaction) tx).kernelTransaction() : tx;
+        PooledEngine held = holder == null ? null : holders.get(holder);
+        if (held != null) {
+            held.nest();
+            held.sync();
+            return held;
+        }
+        PooledEngine pooled = tryBorrow();
+        if (pooled == null) {
+            pooled = await(tx);
+            pooled.sync();
+        }
+        if (holder != null) {
+            pooled.holder = holder;
+            holders.put(holder, pooled);
+        }
+        return pooled;
+    }
+
+    private PooledEngine await(Transaction tx) {
+        InvocationGuard.Invocation invocation = InvocationGuard.current();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        try {
+            while (true) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new IllegalStateException(String.format("The script engine pool is exhausted, all %d engines stayed in use for %d ms. " +
+                            "Close open streams or raise dbms.js.procedure.engine_pool_size.", size, waitMillis));
+                }
+                PooledEngine pooled = idle.poll(Math.min(remaining, WAIT_CHECK_NANOS), TimeUnit.NANOSECONDS);
+                if (pooled != null) {
+                    return pooled;
+                }
+                if (invocation != null && invocation.isAborted()) {
+                    throw invocation.abortException();
+                }
+                if (tx instanceof InternalTransaction && ((InternalTransaction) tx).terminationReason().isPresent()) {
+                    throw new IllegalStateException("The transaction was terminated while waiting for a script engine: "
+                            + ((InternalTransaction) tx).terminationReason().get());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a script engine", e);
+        }
+    }
+
+    /**
+     * @return an idle engine or a new one while the pool isn't full, null instead of waiting for one
+     */
+    public PooledEngine tryBorrow() {
+        PooledEngine pooled = idle.poll();
+        if (pooled == null) {
+            int count = created.get();
+            while (pooled == null && count < size) {
+                if (created.compareAndSet(count, count + 1)) {
+                    pooled = new PooledEngine();
+                } else {
+                    count = created.get();
+                }
+            }
+            if (pooled == null) {
+                return null;
+            }
+        }
+        pooled.sync();
+        return pooled;
+    }
+
+    /**
+     * Hands an engine back, a nested borrow hands it back to the invocation it was nested in.
+     */
+    public void release(PooledEngine pooled) {
+        if (pooled.unnest()) {
+            return;
+        }
+        if (pooled.holder != null) {
+            holders.remove(pooled.holder, pooled);
+            pooled.holder = null;
+        }
+        idle.offer(pooled);
+    }
+
+    public class PooledEngine {
+
+        private final ScriptContext context;
+        private final Map<ScriptEngine, ScriptContext> contexts = new HashMap<>();
+        private final HelperScope scope = new HelperScope();
+        private volatile HelperScope current = scope;
+        // The scopes of the invocations nested borrows of the holding transaction were nested in.
+        private final Deque<HelperScope> outer = new ArrayDeque<>();
+        private volatile Object holder;
+        private final CypherHelper cypher = new CypherHelper(this::getScope);
+        private final GraphHelper graph = new GraphHelper(this::getScope);
+        private final ParallelHelper parallel = new ParallelHelper(ScriptEnginePool.this, this);
+        private final Map<String, CompiledScript> loaded = new HashMap<>();
+        private long loadedVersion = -1;
+
+        private PooledEngine() {
+            context = context(engine);
+        }
+
+        private ScriptContext context(ScriptEngine scriptEngine) {
+            ScriptContext scriptContext = contexts.get(scriptEngine);
+            if (scriptContext == null) {
+                scriptContext = new SimpleScriptContext();
+                scriptContext.setBindings(scriptEngine.createBindings(), ScriptContext.ENGINE_SCOPE);
+                Bindings global = scriptContext.getBindings(ScriptContext.ENGINE_SCOPE);
+                global.put(InvocationGuard.NAME, InvocationGuard.GUARD);
+                global.put(CYPHER, cypher);
+                global.put(GRAPH, graph);
+                global.put(PARALLEL, parallel);
+                String previous = ScriptClassFilter.FILTER.enter(databaseName);
+                try {
+                    for (CompiledScript classText : requiredClasses(scriptEngine)) {
+                        try {
+                            classText.eval(scriptContext);
+                        } catch (ScriptException e) {
+                            log.error("Could not load required class definitions due to eval error. See message", e);
+                        }
+                    }
+                } finally {
+                    ScriptClassFilter.FILTER.exit(previous);
+                }
+                contexts.put(scriptEngine, scriptContext);
+            }
+            return scriptContext;
+        }
+
+        private void sync() {
+            long current = version.get();
+            if (loadedVersion == current) {
+                return;
+            }
+            for (Map.Entry<String, CompiledScript> entry : scripts.entrySet()) {
+                CompiledScript previous = loaded.get(entry.getKey());
+                if (entry.getValue() != previous) {
+                    if (previous != null && previous.getEngine() != entry.getValue().getEngine()) {
+                        // Moved to another profile.
+                        context(previous.getEngine()).getBindings(ScriptContext.ENGINE_SCOPE).put(entry.getKey(), null);
+                    }
+                    try {
+                        entry.getValue().eval(context(entry.getValue().getEngine()));
+                    } catch (ScriptException e) {
+                        log.error("Could not load stored JS Script due to eval error. See message", e);
+                    }
+                    loaded.put(entry.getKey(), entry.getValue());
+                }
+            }
+            if (loaded.size() > scripts.size()) {
+                // Function declarations cannot be deleted from the global, clearing them releases the compiled code.
+                Iterator<Map.Entry<String, CompiledScript>> entries = loaded.entrySet().iterator();
+                while (entries.hasNext()) {
+                    Map.Entry<String, CompiledScript> entry = entries.next();
+                    if (!scripts.containsKey(entry.getKey())) {
+                        Bindings global = context(entry.getValue().getEngine()).getBindings(ScriptContext.ENGINE_SCOPE);
+                        global.put(entry.getKey(), null);
+                        entries.remove();
+                    }
+                }
+            }
+            loadedVersion = current;
+        }
+
+        private synchronized void nest() {
+            outer.push(enter(new HelperScope()));
+        }
+
+        private synchronized boolean unnest() {
+            if (outer.isEmpty()) {
+                return false;
+            }
+            exit(outer.pop());
+            return true;
+        }
+
+        public ScriptContext getContext() {
+            return context;
+        }
+
+        /**
+         * @return what the helpers bound into the globals of this engine work on
+         */
+        public HelperScope getScope() {
+            return current;
+        }
+
+        /**
+         * Makes the helpers of this engine work on another scope until {@link #exit(HelperScope)}, e.g. for a chunk
+         * of {@code parallel.map}.
+         *
+         * @return the scope to restore
+         */
+        public HelperScope enter(HelperScope nested) {
+            HelperScope previous = current;
+            current = nested;
+            return previous;
+        }
+
+        public void exit(HelperScope previous) {
+            current = previous;
+        }
+
+        /**
+         * @return the global the function was evaluated into, the one of the default engine if it isn't loaded
+         */
+        public ScriptContext getContext(String functionName) {
+            CompiledScript script = loaded.get(functionName);
+            return script == null ? context : context(script.getEngine());
+        }
+
+        public ScriptEngine getEngine() {
+            return engine;
+        }
+
+        /**
+         * @return the engine of the global the function was evaluated into, see {@link #getContext(String)}
+         */
+        public ScriptEngine getEngine(String functionName) {
+            CompiledScript script = loaded.get(functionName);
+            return script == null ? engine : script.getEngine();
+        }
+    }
+}
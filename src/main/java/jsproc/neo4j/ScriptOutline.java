@@ -0,0 +1,37 @@
+package jsproc.neo4j;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The top level of a script as registration checks it, parsed by the backend that runs the script.
+ * A stored script must be exactly one function declaration with one parameter.
+ */
+public class ScriptOutline {
+
+    // The parse error, null if the script parsed.
+    public final String error;
+    // null unless the script is exactly one function declaration
+    public final String functionName;
+    public final int parameterCount;
+    // The classes the script looks up with a literal Java.type.
+    public final List<String> javaTypes;
+
+    public ScriptOutline(String functionName, int parameterCount, List<String> javaTypes) {
+        this.error = null;
+        this.functionName = functionName;
+        this.parameterCount = parameterCount;
+        this.javaTypes = javaTypes;
+    }
+
+    private ScriptOutline(String error) {
+        this.error = error;
+        this.functionName = null;
+        this.parameterCount = 0;
+        this.javaTypes = Collections.emptyList();
+    }
+
+    public static ScriptOutline failed(String error) {
+        return new ScriptOutline(error);
+    }
+}
@@ -0,0 +1,245 @@
+package jsproc.neo4j;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Scripts known to one database together with the engine pool they are loaded into.
+ * Lookups read an immutable snapshot without locking. Updates copy the snapshot and swap it
+ * atomically, so readers always see the public name and function name maps of the same version.
+ * At most {@code maxResident} scripts are kept in the engines, the least recently used ones are evicted beyond that.
+ */
+public class ScriptRegistry {
+
+    private final ScriptEnginePool pool;
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(new Snapshot(Collections.emptyMap(), Collections.emptyMap()));
+    private final Map<String, ProcedureMetrics> metrics = new ConcurrentHashMap<>();
+    private final Map<String, PreparedQueries> queries = new ConcurrentHashMap<>();
+    private final Map<String, ScriptWarmUp.Samples> samples = new ConcurrentHashMap<>();
+    private final Map<String, ResultCache> resultCaches = new ConcurrentHashMap<>();
+    private final int maxResident;
+    private final long maxExecutionMillis;
+    private final long warmUpMillis;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ScriptRegistry(ScriptEnginePool pool, int maxResident, long maxExecutionMillis, long warmUpMillis) {
+        this.pool = pool;
+        this.maxResident = maxResident;
+        this.maxExecutionMillis = maxExecutionMillis;
+        this.warmUpMillis = warmUpMillis;
+    }
+
+    public ScriptEnginePool getPool() {
+        return pool;
+    }
+
+    /**
+     * @return the global execution deadline of the procedures of this database in milliseconds, 0 for none
+     */
+    public long getMaxExecutionMillis() {
+        return maxExecutionMillis;
+    }
+
+    /**
+     * @return the time budget of warming up the hot scripts of a load or a commit in milliseconds, 0 for no warm-up
+     */
+    public long getWarmUpMillis() {
+        return warmUpMillis;
+    }
+
+    public ScriptStatus getByPublicName(String publicName) {
+        return snapshot.get().byPublicName.get(publicName);
+    }
+
+    public ScriptStatus getByName(String name) {
+        return snapshot.get().byName.get(name);
+    }
+
+    public Collection<ScriptStatus> getScripts() {
+        return snapshot.get().byPublicName.values();
+    }
+
+    public ProcedureMetrics getMetrics(String publicName) {
+        ProcedureMetrics procedureMetrics = metrics.get(publicName);
+        return procedureMetrics != null ? procedureMetrics : metrics.computeIfAbsent(publicName, name -> new ProcedureMetrics());
+    }
+
+    /**
+     * @return the queries of the current script of a procedure, a new set once the script changed
+     */
+    public PreparedQueries getQueries(ScriptStatus status) {
+        PreparedQueries prepared = queries.get(status.publicName);
+        if (prepared != null && prepared.isFor(status.checkSum)) {
+            return prepared;
+        }
+        return queries.compute(status.publicName, (name, current) -> current != null && current.isFor(status.checkSum)
+                ? current : new PreparedQueries(status.checkSum, getMetrics(name)));
+    }
+
+    /**
+     * @return the parameters captured from recent invocations of a hot script
+     */
+    public ScriptWarmUp.Samples getSamples(String publicName) {
+        ScriptWarmUp.Samples captured = samples.get(publicName);
+        return captured != null ? captured : samples.computeIfAbsent(publicName, name -> new ScriptWarmUp.Samples());
+    }
+
+    /**
+     * @return the result cache of the current script of a function, a new one once the script or its settings changed
+     */
+    public ResultCache getResultCache(ScriptStatus status) {
+        ResultCache cache = resultCaches.get(status.publicName);
+        if (cache != null && cache.isFor(status.checkSum, status.cacheSize, status.cacheTtl)) {
+            return cache;
+        }
+        return resultCaches.compute(status.publicName, (name, current) -> current != null && current.isFor(status.checkSum, status.cacheSize, status.cacheTtl)
+                ? current : new ResultCache(status.checkSum, status.cacheSize, status.cacheTtl, getMetrics(name)));
+    }
+
+    public Map<String, ProcedureMetrics> getMetrics() {
+        return Collections.unmodifiableMap(metrics);
+    }
+
+    public int size() {
+        return snapshot.get().byPublicName.size();
+    }
+
+    public int getMaxResident() {
+        return maxResident;
+    }
+
+    public int getResident() {
+        return pool.getScriptCount();
+    }
+
+    public void hit(ScriptStatus status) {
+        hits.increment();
+        status.lastUsed = System.nanoTime();
+    }
+
+    public void miss() {
+        misses.increment();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Evicts the least recently used scripts down to 90% of the cap once more than {@code maxResident} are loaded,
+     * so that a full registry doesn't evict on every load.
+     *
+     * @return the evicted scripts
+     */
+    public synchronized List<ScriptStatus> evictIfFull() {
+        int resident = pool.getScriptCount();
+        if (resident <= maxResident) {
+            return Collections.emptyList();
+        }
+        int target = maxResident - maxResident / 10;
+        List<ScriptStatus> victims = getScripts().stream()
+                .filter(status -> status.loaded)
+                .sorted(Comparator.comparingLong(status -> status.lastUsed))
+                .limit(resident - target)
+                .collect(Collectors.toList());
+        List<ScriptStatus> evicted = new ArrayList<>(victims.size());
+        for (ScriptStatus victim : victims) {
+            // Skip scripts that were reloaded in the meantime.
+            ScriptStatus replacement = victim.unloaded();
+            Snapshot updated = snapshot.updateAndGet(current -> current.byPublicName.get(victim.publicName) == victim
+                    ? current.with(Collections.singletonList(replacement), new ArrayList<>()) : current);
+            if (updated.byPublicName.get(victim.publicName) == replacement) {
+                pool.undefine(victim.functionName);
+                evictions.increment();
+                evicted.add(victim);
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * @return whether the status was still current and is removed
+     */
+    public boolean remove(ScriptStatus status) {
+        Snapshot previous = snapshot.getAndUpdate(current -> current.without(status));
+        queries.computeIfPresent(status.publicName, (name, current) -> current.isFor(status.checkSum) ? null : current);
+        pool.undefine(status.functionName);
+        return previous.byPublicName.get(status.publicName) == status;
+    }
+
+    /**
+     * @return the loaded scripts the status replaced
+     */
+    public List<ScriptStatus> put(ScriptStatus status) {
+        return putAll(Collections.singletonList(status));
+    }
+
+    /**
+     * @return the loaded scripts the statuses replaced
+     */
+    public List<ScriptStatus> putAll(Collection<ScriptStatus> statuses) {
+        List<ScriptStatus> replaced = new ArrayList<>();
+        snapshot.updateAndGet(current -> {
+            replaced.clear();
+            return current.with(statuses, replaced);
+        });
+        return replaced;
+    }
+
+    private static final class Snapshot {
+
+        private final Map<String, ScriptStatus> byPublicName;
+        private final Map<String, ScriptStatus> byName;
+
+        private Snapshot(Map<String, ScriptStatus> byPublicName, Map<String, ScriptStatus> byName) {
+            this.byPublicName = byPublicName;
+            this.byName = byName;
+        }
+
+        private Snapshot with(Collection<ScriptStatus> statuses, List<ScriptStatus> replaced) {
+            Map<String, ScriptStatus> publicNames = new HashMap<>(byPublicName);
+            Map<String, ScriptStatus> names = new HashMap<>(byName);
+            for (ScriptStatus status : statuses) {
+                ScriptStatus previous = publicNames.put(status.publicName, status);
+                if (previous != null && previous != status && previous.loaded) {
+                    replaced.add(previous);
+                }
+                if (previous != null && !previous.functionName.equals(status.functionName)) {
+                    names.remove(previous.functionName);
+                }
+                names.put(status.functionName, status);
+            }
+            return new Snapshot(Collections.unmodifiableMap(publicNames), Collections.unmodifiableMap(names));
+        }
+
+        private Snapshot without(ScriptStatus status) {
+            if (byPublicName.get(status.publicName) != status) {
+                return this;
+            }
+            Map<String, ScriptStatus> publicNames = new HashMap<>(byPublicName);
+            Map<String, ScriptStatus> names = new HashMap<>(byName);
+            publicNames.remove(status.publicName);
+            names.remove(status.functionName, status);
+            return new Snapshot(Collections.unmodifiableMap(publicNames), Collections.unmodifiableMap(names));
+        }
+    }
+}
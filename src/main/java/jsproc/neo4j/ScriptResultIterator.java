@@ -0,0 +1,125 @@
+package jsproc.neo4j;
+
+import org.openjdk.nashorn.api.scripting.ScriptObjectMirror;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+
+/**
+ * Adapts the value returned by a script into an iterator that is pulled one element at a time.
+ * Supported are Java iterators, iterables and streams, JS arrays, JS iterators (objects with a
+ * {@code next()} function returning {@code {value, done}}) and generator style callbacks, which
+ * are called until they return null or undefined. Any other value is a single element.
+ */
+public abstract class ScriptResultIterator implements Iterator<Object> {
+
+    private static final Object END = new Object();
+
+    private Object next;
+    private boolean fetched = false;
+    private boolean done = false;
+
+    /**
+     * @return the next element, or {@link #END} once there are no more elements
+     */
+    protected abstract Object fetch();
+
+    @Override
+    public boolean hasNext() {
+        if (!fetched && !done) {
+            next = fetch();
+            fetched = true;
+            done = next == END;
+        }
+        return !done;
+    }
+
+    @Override
+    public Object next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        fetched = false;
+        return next;
+    }
+
+    /**
+     * @return whether the value produces its elements as they are pulled, i.e. is an iterator, a stream or a generator
+     */
+    public static boolean isLazy(Object result) {
+        if (result instanceof Iterator || result instanceof Stream) {
+            return true;
+        } else if (result instanceof ScriptObjectMirror) {
+            ScriptObjectMirror mirror = (ScriptObjectMirror) result;
+            return !mirror.isArray() && (mirror.isFunction()
+                    || mirror.getMember("next") instanceof ScriptObjectMirror && ((ScriptObjectMirror) mirror.getMember("next")).isFunction());
+        }
+        return false;
+    }
+
+    public static Iterator<?> of(Object result) {
+        if (result == null || ScriptObjectMirror.isUndefined(result)) {
+            return Collections.emptyIterator();
+        } else if (result instanceof Iterator) {
+            return (Iterator<?>) result;
+        } else if (result instanceof Stream) {
+            return ((Stream<?>) result).iterator();
+        } else if (result instanceof ScriptObjectMirror) {
+            ScriptObjectMirror mirror = (ScriptObjectMirror) result;
+            if (mirror.isArray()) {
+                return arrayIterator(mirror);
+            } else if (mirror.isFunction()) {
+                return callbackIterator(mirror);
+            } else if (mirror.getMember("next") instanceof ScriptObjectMirror
+                    && ((ScriptObjectMirror) mirror.getMember("next")).isFunction()) {
+                return jsIterator(mirror);
+            }
+        } else if (result instanceof Iterable) {
+            return ((Iterable<?>) result).iterator();
+        }
+        return Collections.singletonList(result).iterator();
+    }
+
+    private static Iterator<?> arrayIterator(ScriptObjectMirror array) {
+        return new ScriptResultIterator() {
+            private int index = 0;
+
+            @Override
+            protected Object fetch() {
+                if (index >= ((Number) array.getMember("length")).intValue()) {
+                    return END;
+                }
+                return translate(array.getSlot(index++));
+            }
+        };
+    }
+
+    private static Iterator<?> callbackIterator(ScriptObjectMirror callback) {
+        return new ScriptResultIterator() {
+            @Override
+            protected Object fetch() {
+                Object value = callback.call(null);
+                return value == null || ScriptObjectMirror.isUndefined(value) ? END : value;
+            }
+        };
+    }
+
+    private static Iterator<?> jsIterator(ScriptObjectMirror iterator) {
+        return new ScriptResultIterator() {
+            @Override
+            protected Object fetch() {
+                Object step = iterator.callMember("next");
+                if (!(step instanceof ScriptObjectMirror) || Boolean.TRUE.equals(((ScriptObjectMirror) step).getMember("done"))) {
+                    return END;
+                }
+                return translate(((ScriptObjectMirror) step).getMember("value"));
+            }
+        };
+    }
+
+    private static Object translate(Object value) {
+        return ScriptObjectMirror.isUndefined(value) ? null : value;
+    }
+}
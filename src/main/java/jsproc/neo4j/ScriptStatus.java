@@ -3,9 +3,43 @@ package jsproc.neo4j;
 import java.time.ZonedDateTime;
 
 public class ScriptStatus {
-    public String publicName ;
-    public String functionName ;
-    public ZonedDateTime lastReadTime ;
-    public boolean loaded = false ;
-    public boolean disabled = false ;
+    public final String publicName ;
+    public final String functionName ;
+    public final String checkSum ;
+    public final ZonedDateTime lastReadTime ;
+    public final boolean loaded ;
+    public volatile long readVersion = -1 ;
+    public volatile boolean disabled = false ;
+    public volatile long lastUsed = System.nanoTime() ;
+    public volatile long timeoutMillis = 0 ;
+    public volatile EngineProfile profile = EngineProfile.DEFAULT ;
+    public volatile ScriptBackend backend = ScriptBackends.getDefault() ;
+    public volatile boolean hot = false ;
+    public volatile long cacheSize = 0 ;
+    public volatile long cacheTtl = 0 ;
+
+    public ScriptStatus(String publicName, String functionName, String checkSum, boolean loaded) {
+        this.publicName = publicName ;
+        this.functionName = functionName ;
+        this.checkSum = checkSum ;
+        this.loaded = loaded ;
+        this.lastReadTime = ZonedDateTime.now() ;
+    }
+
+    /**
+     * Copy of this status for a script that was evicted from the engines and has to be reloaded on next use.
+     */
+    public ScriptStatus unloaded() {
+        ScriptStatus data = new ScriptStatus(publicName, functionName, checkSum, false) ;
+        data.readVersion = readVersion ;
+        data.disabled = disabled ;
+        data.lastUsed = lastUsed ;
+        data.timeoutMillis = timeoutMillis ;
+        data.profile = profile ;
+        data.backend = backend ;
+        data.hot = hot ;
+        data.cacheSize = cacheSize ;
+        data.cacheTtl = cacheTtl ;
+        return data ;
+    }
 }
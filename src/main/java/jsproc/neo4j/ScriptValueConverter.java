@@ -0,0 +1,174 @@
+package jsproc.neo4j;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.kernel.impl.util.ValueUtils;
+import org.neo4j.values.AnyValue;
+import org.neo4j.values.storable.Values;
+import org.neo4j.values.virtual.MapValueBuilder;
+import org.neo4j.values.virtual.VirtualValues;
+import org.openjdk.nashorn.api.scripting.ScriptObjectMirror;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts values returned by scripts in one pass. JS arrays become lists, or {@code long[]}/{@code double[]}
+ * when all elements are numbers, JS objects become maps and JS dates become date times. Nodes and relationships
+ * are passed through. {@link #toJava(Object)} is used where Neo4j converts the result, e.g. {@link MapResult},
+ * {@link #toValue(Object)} where a Neo4j value is returned directly.
+ */
+public final class ScriptValueConverter {
+
+    private ScriptValueConverter() {
+    }
+
+    public static Object toJava(Object value) {
+        if (value == null || ScriptObjectMirror.isUndefined(value)) {
+            return null;
+        } else if (value instanceof ScriptObjectMirror) {
+            ScriptObjectMirror mirror = (ScriptObjectMirror) value;
+            if (mirror.isArray()) {
+                Object[] elements = slots(mirror);
+                Object numbers = numericArray(elements);
+                if (numbers != null) {
+                    return numbers;
+                }
+                List<Object> list = new ArrayList<>(elements.length);
+                for (Object element : elements) {
+                    list.add(toJava(element));
+                }
+                return list;
+            } else if (isDate(mirror)) {
+                return date(mirror);
+            } else if (mirror.isFunction()) {
+                return mirror.toString();
+            }
+            Map<String, Object> map = new LinkedHashMap<>(mirror.size() * 4 / 3 + 1);
+            for (Map.Entry<String, Object> entry : mirror.entrySet()) {
+                map.put(entry.getKey(), toJava(entry.getValue()));
+            }
+            return map;
+        } else if (value instanceof Node || value instanceof Relationship) {
+            return value;
+        } else if (value instanceof Map) {
+            Map<?, ?> source = (Map<?, ?>) value;
+            Map<String, Object> map = new LinkedHashMap<>(source.size() * 4 / 3 + 1);
+            for (Map.Entry<?, ?> entry : source.entrySet()) {
+                map.put(String.valueOf(entry.getKey()), toJava(entry.getValue()));
+            }
+            return map;
+        } else if (value instanceof Collection) {
+            Collection<?> source = (Collection<?>) value;
+            List<Object> list = new ArrayList<>(source.size());
+            for (Object element : source) {
+                list.add(toJava(element));
+            }
+            return list;
+        }
+        return value;
+    }
+
+    public static AnyValue toValue(Object value) {
+        if (value == null || ScriptObjectMirror.isUndefined(value)) {
+            return Values.NO_VALUE;
+        } else if (value instanceof ScriptObjectMirror) {
+            ScriptObjectMirror mirror = (ScriptObjectMirror) value;
+            if (mirror.isArray()) {
+                Object[] elements = slots(mirror);
+                Object numbers = numericArray(elements);
+                if (numbers instanceof long[]) {
+                    return Values.longArray((long[]) numbers);
+                } else if (numbers instanceof double[]) {
+                    return Values.doubleArray((double[]) numbers);
+                }
+                AnyValue[] list = new AnyValue[elements.length];
+                for (int i = 0; i < elements.length; i++) {
+                    list[i] = toValue(elements[i]);
+                }
+                return VirtualValues.list(list);
+            } else if (isDate(mirror)) {
+                return Values.of(date(mirror));
+            } else if (mirror.isFunction()) {
+                return Values.stringValue(mirror.toString());
+            }
+            MapValueBuilder map = new MapValueBuilder(mirror.size());
+            for (Map.Entry<String, Object> entry : mirror.entrySet()) {
+                map.add(entry.getKey(), toValue(entry.getValue()));
+            }
+            return map.build();
+        } else if (value instanceof Node) {
+            return ValueUtils.fromNodeEntity((Node) value);
+        } else if (value instanceof Relationship) {
+            return ValueUtils.fromRelationshipEntity((Relationship) value);
+        } else if (value instanceof Map) {
+            Map<?, ?> source = (Map<?, ?>) value;
+            MapValueBuilder map = new MapValueBuilder(source.size());
+            for (Map.Entry<?, ?> entry : source.entrySet()) {
+                map.add(String.valueOf(entry.getKey()), toValue(entry.getValue()));
+            }
+            return map.build();
+        } else if (value instanceof Collection) {
+            Collection<?> source = (Collection<?>) value;
+            AnyValue[] list = new AnyValue[source.size()];
+            int i = 0;
+            for (Object element : source) {
+                list[i++] = toValue(element);
+            }
+            return VirtualValues.list(list);
+        }
+        return ValueUtils.of(value);
+    }
+
+    private static Object[] slots(ScriptObjectMirror array) {
+        Object length = array.getMember("length");
+        Object[] elements = new Object[length instanceof Number ? ((Number) length).intValue() : 0];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = array.getSlot(i);
+        }
+        return elements;
+    }
+
+    /**
+     * @return a {@code long[]} if all elements are integers, a {@code double[]} if all are numbers, otherwise null
+     */
+    private static Object numericArray(Object[] elements) {
+        if (elements.length == 0) {
+            return null;
+        }
+        boolean integral = true;
+        for (Object element : elements) {
+            if (!(element instanceof Number)) {
+                return null;
+            }
+            integral &= element instanceof Integer || element instanceof Long || element instanceof Short || element instanceof Byte;
+        }
+        if (integral) {
+            long[] longs = new long[elements.length];
+            for (int i = 0; i < elements.length; i++) {
+                longs[i] = ((Number) elements[i]).longValue();
+            }
+            return longs;
+        }
+        double[] doubles = new double[elements.length];
+        for (int i = 0; i < elements.length; i++) {
+            doubles[i] = ((Number) elements[i]).doubleValue();
+        }
+        return doubles;
+    }
+
+    private static boolean isDate(ScriptObjectMirror mirror) {
+        return "Date".equals(mirror.getClassName());
+    }
+
+    private static ZonedDateTime date(ScriptObjectMirror mirror) {
+        long millis = ((Number) mirror.callMember("getTime")).longValue();
+        return ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,199 @@
+package jsproc.neo4j;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.internal.kernel.api.connectioninfo.ClientConnectionInfo;
+import org.neo4j.internal.kernel.api.security.AccessMode;
+import org.neo4j.internal.kernel.api.security.SecurityContext;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.Mode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Replays sample parameters against the scripts flagged hot, so that their first invocations after a load or a
+ * re-register run on compiled and optimized code. Samples are declared in the register config as
+ * {@code {warmup: [{...}, ...]}} or, with {@code {warmup: true}}, captured from recent invocations.
+ * Warm-up runs on its own thread within a time budget. Only functions and READ procedures are warmed up, and
+ * they run in read transactions that are rolled back, so a script that writes anyway fails its warm-up instead of
+ * taking locks or committing. Only plain values, i.e. strings, numbers, booleans and lists and maps of them,
+ * are replayed; entities are bound to the transaction they were read in.
+ */
+public class ScriptWarmUp {
+
+    static final int MAX_INVOCATIONS = 1000;
+    static final int MAX_SAMPLES = 16;
+    // A full buffer replaces a sample on every CAPTURE_RATEth invocation on average.
+    private static final int CAPTURE_RATE = 32;
+
+    private static final ObjectMapper JSON = new ObjectMapper().enable(DeserializationFeature.USE_LONG_FOR_INTS);
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "js-procedure-warmup");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private ScriptWarmUp() {
+    }
+
+    public static boolean isHot(Map<String, Object> config) {
+        Object warmup = config == null ? null : config.get(StoredProcedureEngine.WarmUp);
+        return Boolean.TRUE.equals(warmup) || warmup instanceof List;
+    }
+
+    /**
+     * Warm-up replays invocations against the database, WRITE procedures would change it.
+     *
+     * @param mode the mode of a procedure, ignored for functions
+     */
+    public static boolean canWarmUp(boolean function, String mode) {
+        return function || Mode.READ.name().equals(mode);
+    }
+
+    /**
+     * @return the samples declared in the config as JSON, null if there are none
+     * @throws IllegalArgumentException if the samples are not a list of maps of plain values
+     */
+    public static String declaredSamples(Map<String, Object> config) {
+        Object warmup = config == null ? null : config.get(StoredProcedureEngine.WarmUp);
+        if (warmup == null || warmup instanceof Boolean) {
+            return null;
+        }
+        if (!(warmup instanceof List) || !((List<?>) warmup).stream().allMatch(sample -> sample instanceof Map && isPlain(sample))) {
+            throw new IllegalArgumentException("The warmup must be true or a list of sample parameter maps of plain values.");
+        }
+        try {
+            return JSON.writeValueAsString(warmup);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Could not store the warm-up samples: " + e.getOriginalMessage());
+        }
+    }
+
+    public static List<Map<String, Object>> parseSamples(String json) {
+        if (json == null) {
+            return Collections.emptyList();
+        }
+        try {
+            return JSON.readValue(json, new TypeReference<List<Map<String, Object>>>() { });
+        } catch (JsonProcessingException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    static boolean isPlain(Object value) {
+        if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean) {
+            return true;
+        } else if (value instanceof List) {
+            return ((List<?>) value).stream().allMatch(ScriptWarmUp::isPlain);
+        } else if (value instanceof Map) {
+            return ((Map<?, ?>) value).entrySet().stream().allMatch(entry -> entry.getKey() instanceof String && isPlain(entry.getValue()));
+        }
+        return false;
+    }
+
+    static void submit(Runnable warmUp) {
+        executor.execute(warmUp);
+    }
+
+    /**
+     * Invokes the script with its samples, round after round, until the deadline passes or it was invoked
+     * {@link #MAX_INVOCATIONS} times. Every round runs in a read transaction of its own, which is rolled back.
+     *
+     * @return whether the script was invoked at all
+     */
+    static boolean warmUp(StoredProcedureEngine engine, GraphDatabaseService db, ScriptRegistry registry, String publicName,
+                          List<Map<String, Object>> samples, long deadline, Log log) {
+        // Warm-up invocations stay out of the stats, only their number is counted.
+        ProcedureMetrics warmUpMetrics = new ProcedureMetrics();
+        int invocations = 0;
+        try {
+            while (invocations < MAX_INVOCATIONS && System.nanoTime() - deadline < 0) {
+                try (Transaction tx = beginRead(db)) {
+                    ScriptDetails details = engine.getEngine(db, tx, publicName);
+                    if (details == null) {
+                        return false;
+                    }
+                    try {
+                        details.setMetrics(warmUpMetrics);
+                        details.setSamples(null);
+                        details.bind(db, tx, details.getQueries());
+                        for (Map<String, Object> sample : samples) {
+                            Map<String, Object> parameters = new HashMap<>(sample);
+                            parameters.put("txn", tx);
+                            parameters.put("log", log);
+                            ScriptValueConverter.toJava(details.invoke(parameters));
+                            invocations++;
+                        }
+                    } finally {
+                        details.release();
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.warn(String.format("Warm-up of %s stopped after %d invocations: %s", publicName, invocations, e.getMessage()));
+        } finally {
+            registry.getMetrics(publicName).warmedUp(invocations);
+        }
+        return invocations > 0;
+    }
+
+    private static Transaction beginRead(GraphDatabaseService db) {
+        if (!(db instanceof GraphDatabaseAPI)) {
+            throw new IllegalStateException("Warm-up needs a kernel transaction");
+        }
+        return ((GraphDatabaseAPI) db).beginTransaction(KernelTransaction.Type.EXPLICIT,
+                SecurityContext.authDisabled(AccessMode.Static.READ, ClientConnectionInfo.EMBEDDED_CONNECTION, db.databaseName()));
+    }
+
+    /**
+     * Parameters of recent invocations of a hot script, at most {@link #MAX_SAMPLES}. Once full, a random sample is
+     * replaced now and then, so capturing stays cheap and follows changing traffic.
+     */
+    public static class Samples {
+
+        private final List<Map<String, Object>> samples = new ArrayList<>();
+        private volatile boolean full = false;
+
+        public void capture(Map<?, ?> parameters) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (full && random.nextInt(CAPTURE_RATE) != 0) {
+                return;
+            }
+            Map<String, Object> sample = new HashMap<>();
+            for (Map.Entry<?, ?> entry : parameters.entrySet()) {
+                if ("txn".equals(entry.getKey()) || "log".equals(entry.getKey())) {
+                    continue;
+                }
+                if (!(entry.getKey() instanceof String) || !isPlain(entry.getValue())) {
+                    return;
+                }
+                sample.put((String) entry.getKey(), entry.getValue());
+            }
+            synchronized (this) {
+                if (samples.size() < MAX_SAMPLES) {
+                    samples.add(sample);
+                    full = samples.size() == MAX_SAMPLES;
+                } else {
+                    samples.set(random.nextInt(MAX_SAMPLES), sample);
+                }
+            }
+        }
+
+        public synchronized List<Map<String, Object>> get() {
+            return new ArrayList<>(samples);
+        }
+    }
+}
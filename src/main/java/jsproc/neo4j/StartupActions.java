@@ -1,20 +1,27 @@
 package jsproc.neo4j;
 
 import org.neo4j.configuration.GraphDatabaseSettings;
+import org.neo4j.dbms.api.DatabaseManagementService;
 import org.neo4j.kernel.availability.AvailabilityGuard;
 import org.neo4j.kernel.internal.GraphDatabaseAPI;
 import org.neo4j.kernel.lifecycle.LifecycleAdapter;
 import org.neo4j.logging.Log;
 import org.neo4j.logging.internal.LogService;
 
+import javax.management.JMException;
+
 public class StartupActions extends LifecycleAdapter {
 
     private final GraphDatabaseAPI graphDatabaseAPI;
+    private final DatabaseManagementService managementService;
     private final LogService logService;
     private final Log log;
+    private final ScriptChangeListener scriptChangeListener = new ScriptChangeListener();
+    private Thread loaderThread;
 
-    public StartupActions(GraphDatabaseAPI graphDatabaseAPI, LogService logService) {
+    public StartupActions(GraphDatabaseAPI graphDatabaseAPI, DatabaseManagementService managementService, LogService logService) {
         this.graphDatabaseAPI = graphDatabaseAPI;
+        this.managementService = managementService;
         this.logService = logService;
         this.log = logService.getUserLog(StartupActions.class);
         StoredProcedureEngine.getStoredProcedureEngine(log);
@@ -24,14 +31,34 @@ public class StartupActions extends LifecycleAdapter {
     public void start() {
         if (!this.graphDatabaseAPI.databaseName().equals(GraphDatabaseSettings.SYSTEM_DATABASE_NAME)) {
             log.debug("Startup Extension Loaded. Set up Proc Loader");
+            managementService.registerTransactionEventListener(graphDatabaseAPI.databaseName(), scriptChangeListener);
+            try {
+                StoredProcedureStats.register(graphDatabaseAPI.databaseName());
+            } catch (JMException e) {
+                log.warn("Could not register the stored procedure stats MBean", e);
+            }
             ProcLoader procLoader = new ProcLoader(graphDatabaseAPI);
-            Thread thread = new Thread(procLoader);
-            thread.setDaemon(true);
-            thread.start();
+            loaderThread = new Thread(procLoader);
+            loaderThread.setDaemon(true);
+            loaderThread.start();
         }
 
     }
 
+    @Override
+    public void stop() {
+        if (loaderThread != null) {
+            managementService.unregisterTransactionEventListener(graphDatabaseAPI.databaseName(), scriptChangeListener);
+            try {
+                StoredProcedureStats.unregister(graphDatabaseAPI.databaseName());
+            } catch (JMException e) {
+                log.warn("Could not unregister the stored procedure stats MBean", e);
+            }
+            loaderThread.interrupt();
+            loaderThread = null;
+        }
+    }
+
     class ProcLoader implements Runnable {
 
         GraphDatabaseAPI db;
@@ -50,10 +77,27 @@ public class StartupActions extends LifecycleAdapter {
                     Thread.sleep(5000);
                 } catch (InterruptedException e) {
                     log.warn("Thread was interrupted", e);
+                    return;
                 }
             }
             StoredProcedureEngine.getStoredProcedureEngine(null).loadStoredProcedures(db);
             log.info("LEAVE - Load Stored Proc Nodes from DB into Engine");
+
+            // Local commits are picked up by the ScriptChangeListener. Polling the lock node only catches
+            // changes the listener cannot see, e.g. transactions applied from other cluster members.
+            UpdatedStatus updatedStatus = UpdatedStatus.getInstance(db);
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    Thread.sleep(updatedStatus.getInterval() * 1000);
+                    if (availabilityGuard.isAvailable()) {
+                        updatedStatus.refresh(db);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    log.warn("Could not refresh the stored procedure update status", e);
+                }
+            }
         }
 
     }
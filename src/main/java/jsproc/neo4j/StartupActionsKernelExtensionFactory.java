@@ -1,6 +1,7 @@
 package jsproc.neo4j;
 
 import org.neo4j.annotations.service.ServiceProvider;
+import org.neo4j.dbms.api.DatabaseManagementService;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.kernel.extension.ExtensionFactory;
 import org.neo4j.kernel.extension.ExtensionType;
@@ -20,11 +21,13 @@ public class StartupActionsKernelExtensionFactory
     @Override
     public Lifecycle newInstance(ExtensionContext extensionContext, Dependencies dependencies) {
         return new StartupActions((GraphDatabaseAPI) dependencies.getDatabaseService(),
+                dependencies.getDatabaseManagementService(),
                 dependencies.getLogService());
     }
 
     interface Dependencies {
         GraphDatabaseService getDatabaseService();
+        DatabaseManagementService getDatabaseManagementService();
         LogService getLogService();
     }
 }
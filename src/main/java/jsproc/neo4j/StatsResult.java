@@ -0,0 +1,39 @@
+package jsproc.neo4j;
+
+import java.util.Map;
+
+public class StatsResult {
+
+    public final String publicName;
+    public final long invocations;
+    public final long errors;
+    public final long aborts;
+    public final long compiles;
+    public final long warmUps;
+    public final long cacheHits;
+    public final long cacheMisses;
+    public final Map<String, Object> lookup;
+    public final Map<String, Object> execution;
+    public final Map<String, Object> conversion;
+    public final Map<String, Object> query;
+    public final long queryRows;
+    public final long unpreparedQueries;
+
+    public StatsResult(String publicName, ProcedureMetrics metrics) {
+        this.publicName = publicName;
+        this.invocations = metrics.getInvocations();
+        this.errors = metrics.getErrors();
+        this.aborts = metrics.getAborts();
+        this.compiles = metrics.getCompiles();
+        this.warmUps = metrics.getWarmUps();
+        this.cacheHits = metrics.getCacheHits();
+        this.cacheMisses = metrics.getCacheMisses();
+        this.lookup = ProcedureMetrics.summary(metrics.getLookup());
+        this.execution = ProcedureMetrics.summary(metrics.getExecution());
+        this.conversion = ProcedureMetrics.summary(metrics.getConversion());
+        this.query = ProcedureMetrics.summary(metrics.getQuery());
+        this.queryRows = metrics.getQueryRows();
+        this.unpreparedQueries = metrics.getUnpreparedQueries();
+    }
+
+}
@@ -1,21 +1,14 @@
 package jsproc.neo4j;
 
-import org.openjdk.nashorn.api.tree.CompilationUnitTree;
-import org.openjdk.nashorn.api.tree.FunctionDeclarationTree;
-import org.openjdk.nashorn.api.tree.Parser;
 import org.neo4j.graphdb.*;
 import org.neo4j.logging.Log;
 import org.neo4j.procedure.*;
 
-import javax.script.Invocable;
-import javax.xml.bind.DatatypeConverter;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.time.ZonedDateTime;
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class StoredProcedureAPI {
 
@@ -26,18 +19,8 @@ public class StoredProcedureAPI {
     @Context
     public GraphDatabaseService db;
 
-    private static final Pattern JAVA_TYPE_REGEX = Pattern.compile("Java.type\\s*\\(\\s*['\"]([a-zA-Z_$][a-zA-Z\\d_$]*\\.?)+['\"]\\s*\\)");
-    private static final MessageDigest MESSAGE_DIGEST;
     private static final String UNREGISTER_SCRIPT_TEMPLATE = "function %s(params){throw new ReferenceError('Cannot invoke unregistered procedure');}";
 
-    static {
-        try {
-            MESSAGE_DIGEST = MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
     /**
      *
      * @param script
@@ -52,94 +35,150 @@ public class StoredProcedureAPI {
                                                     @Name(value = "publicName" , defaultValue = "") String publicName,
                                                     @Name(value = "config", defaultValue = "{}") Map<String,Object> config) {
 
-        Parser parser = Parser.create();
-        JSParserDiagnosticListener listener = new JSParserDiagnosticListener();
-        CompilationUnitTree cut = parser.parse(publicName, script, listener);
-
-        if(listener.hasError()) {
-            // There is some parse error.
-            return Stream.of(new RegisterResult(listener.getMessage()));
+        ScriptDefinition definition = ScriptDefinition.of(db.databaseName(), script, publicName, config, true);
+        if(!definition.isValid()) {
+            return Stream.of(new RegisterResult(definition.error));
         }
-
-        if(cut.getSourceElements().size() != 1 || !(cut.getSourceElements().get(0) instanceof FunctionDeclarationTree)) {
-            // Error
-            return Stream.of(new RegisterResult("There must exist exactly one JS function per register request."));
-        } else if (((FunctionDeclarationTree)(cut.getSourceElements().get(0))).getParameters().size() != 1) {
-            // Error
-            return Stream.of(new RegisterResult("There must be exactly one parameter in JS function."));
-        } else if(JAVA_TYPE_REGEX.matcher(script).find()) {
-            // Error
-            return Stream.of(new RegisterResult("Only predefined Java.type can be used in JS function."));
-        }
-        String name = ((FunctionDeclarationTree)(cut.getSourceElements().get(0))).getName().getName();
-        String checkSum = DatatypeConverter.printHexBinary(MESSAGE_DIGEST.digest(script.getBytes(StandardCharsets.UTF_8))).toUpperCase();
-        if (validate(publicName, name)) {
+        if (validate(publicName, definition.name)) {
             UpdatedStatus updatedStatus = UpdatedStatus.getInstance(db) ;
-            updatedStatus.updateTimestamp(txn, ZonedDateTime.now());
             Node n = txn.findNode(StoredProcedureEngine.JS_StoredProcedure, StoredProcedureEngine.PublicName, publicName);
-            if(n == null) {
-                n = txn.createNode(StoredProcedureEngine.JS_StoredProcedure);
-                n.setProperty(StoredProcedureEngine.PublicName, publicName);
-                n.setProperty(StoredProcedureEngine.FunctionName, name);
-                n.setProperty(StoredProcedureEngine.LastUpdatedime, updatedStatus.getLastUpdated());
-                n.setProperty(StoredProcedureEngine.CheckSum, checkSum);
-            } else if(String.valueOf(n.getProperty(StoredProcedureEngine.CheckSum)).equals(checkSum)) {
+            if(n != null && definition.isUnchanged(n)) {
                 return Stream.of(RegisterResult.NO_CHANGE);
             }
-            n.setProperty(StoredProcedureEngine.CheckSum, checkSum);
-            n.setProperty(StoredProcedureEngine.Script, script);
-            n.setProperty(StoredProcedureEngine.LastUpdatedime, updatedStatus.getLastUpdated());
-            StoredProcedureEngine.getStoredProcedureEngine(null).loadProcedure(db, txn, publicName, updatedStatus);
+            updatedStatus.updateTimestamp(txn, ZonedDateTime.now());
+            // Compiled and made callable once the transaction commits, see ScriptChangeListener.
+            writeProcedure(n, definition, updatedStatus.getLastUpdated());
             return Stream.of(RegisterResult.SUCCESS);
         } else {
             throw new RuntimeException("Proc Name not unique");
         }
     }
 
+    /**
+     * Registers many stored procedures in this transaction. The scripts are parsed, validated and hashed in parallel,
+     * unchanged scripts are skipped and the JS_ProcedureLock timestamp is only moved once. Changed scripts are
+     * compiled after the transaction commits.
+     *
+     * @param scripts list of {script, publicName, config} maps
+     * @return
+     */
+    @Procedure(name = "js.procedure.registerAll", mode = Mode.WRITE)
+    @Description("js.procedure.registerAll([{script: <Valid Javascript Function Code>, publicName: <Public Name>, config: <Config>}]) - Save many Javascript Stored Procedures at once")
+    public Stream<BulkRegisterResult> registerAllStoredProcedures(@Name(value = "scripts") List<Map<String,Object>> scripts) {
+        if(scripts == null) {
+            return Stream.empty();
+        }
+        List<ScriptDefinition> definitions = scripts.parallelStream()
+                .map(entry -> {
+                    Object script = entry.get("script");
+                    Object publicName = entry.get("publicName");
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> config = entry.get("config") instanceof Map ? (Map<String, Object>) entry.get("config") : Collections.emptyMap();
+                    return ScriptDefinition.of(db.databaseName(), script == null ? "" : script.toString(), publicName == null ? "" : publicName.toString(), config, true);
+                })
+                .collect(Collectors.toList());
+
+        List<BulkRegisterResult> results = new ArrayList<>(definitions.size());
+        Map<ScriptDefinition, Node> changed = new LinkedHashMap<>();
+        Set<String> publicNames = new HashSet<>();
+        for(ScriptDefinition definition : definitions) {
+            if(!definition.isValid()) {
+                results.add(new BulkRegisterResult(definition.publicName, definition.error));
+            } else if(!publicNames.add(definition.publicName)) {
+                results.add(new BulkRegisterResult(definition.publicName, "Public name is registered more than once in this request."));
+            } else if(!validate(definition.publicName, definition.name)) {
+                results.add(new BulkRegisterResult(definition.publicName, "Proc Name not unique"));
+            } else {
+                Node n = txn.findNode(StoredProcedureEngine.JS_StoredProcedure, StoredProcedureEngine.PublicName, definition.publicName);
+                if(n != null && definition.isUnchanged(n)) {
+                    results.add(new BulkRegisterResult(definition.publicName, RegisterResult.NO_CHANGE.message));
+                } else {
+                    changed.put(definition, n);
+                    results.add(new BulkRegisterResult(definition.publicName, RegisterResult.SUCCESS.message));
+                }
+            }
+        }
+        if(!changed.isEmpty()) {
+            UpdatedStatus updatedStatus = UpdatedStatus.getInstance(db) ;
+            updatedStatus.updateTimestamp(txn, ZonedDateTime.now());
+            changed.forEach((definition, n) -> writeProcedure(n, definition, updatedStatus.getLastUpdated()));
+        }
+        return results.stream();
+    }
+
+    private void writeProcedure(Node n, ScriptDefinition definition, ZonedDateTime lastUpdated) {
+        if(n == null) {
+            n = txn.createNode(StoredProcedureEngine.JS_StoredProcedure);
+            n.setProperty(StoredProcedureEngine.PublicName, definition.publicName);
+            n.setProperty(StoredProcedureEngine.FunctionName, definition.name);
+        }
+        if(definition.config != null) {
+            // The unregister script keeps the signature of the procedure.
+            n.setProperty(StoredProcedureEngine.Mode, definition.mode);
+            n.setProperty(StoredProcedureEngine.Inputs, definition.inputs);
+            n.setProperty(StoredProcedureEngine.Outputs, definition.outputs);
+            n.setProperty(StoredProcedureEngine.Timeout, definition.timeout);
+            n.setProperty(StoredProcedureEngine.Profile, definition.profile.getName());
+            setBackend(n, definition);
+            setWarmUp(n, definition);
+        }
+        n.setProperty(StoredProcedureEngine.CheckSum, definition.checkSum);
+        n.setProperty(StoredProcedureEngine.Script, definition.script);
+        n.setProperty(StoredProcedureEngine.LastUpdatedime, lastUpdated);
+    }
+
+    private static void setBackend(Node n, ScriptDefinition definition) {
+        if(definition.backend == null) {
+            // Follows dbms.js.procedure.default_backend.
+            n.removeProperty(StoredProcedureEngine.Backend);
+        } else {
+            n.setProperty(StoredProcedureEngine.Backend, definition.backend.getName());
+        }
+    }
+
+    private static void setWarmUp(Node n, ScriptDefinition definition) {
+        n.setProperty(StoredProcedureEngine.Hot, definition.hot);
+        if(definition.warmUpSamples == null) {
+            n.removeProperty(StoredProcedureEngine.WarmUpSamples);
+        } else {
+            n.setProperty(StoredProcedureEngine.WarmUpSamples, definition.warmUpSamples);
+        }
+    }
+
     @Procedure(name = "js.function.register", mode = Mode.WRITE)
     @Description("js.function.register(<Valid Javascript Function Code>, <Public Name>, <Config>) - Save a Javascript Stored Procedure")
     public Stream<RegisterResult> registerFunction(@Name(value = "script") String script,
                                                    @Name(value = "publicName" , defaultValue = "") String publicName,
                                                    @Name(value = "config", defaultValue = "{}") Map<String,Object> config) {
 
-        Parser parser = Parser.create();
-        JSParserDiagnosticListener listener = new JSParserDiagnosticListener();
-        CompilationUnitTree cut = parser.parse(publicName, script, listener);
-
-        if(listener.hasError()) {
-            // There is some parse error.
-            return Stream.of(new RegisterResult(listener.getMessage()));
-        }
-
-        if(cut.getSourceElements().size() != 1 || !(cut.getSourceElements().get(0) instanceof FunctionDeclarationTree)) {
-            // Error
-            return Stream.of(new RegisterResult("There must exist exactly one JS function per register request."));
-        } else if (((FunctionDeclarationTree)(cut.getSourceElements().get(0))).getParameters().size() != 1) {
-            // Error
-            return Stream.of(new RegisterResult("There must be exactly one parameter in JS function."));
-        } else if(JAVA_TYPE_REGEX.matcher(script).find()) {
-            // Error
-            return Stream.of(new RegisterResult("Only predefined Java.type can be used in JS function."));
+        ScriptDefinition definition = ScriptDefinition.of(db.databaseName(), script, publicName, config, false);
+        if(!definition.isValid()) {
+            return Stream.of(new RegisterResult(definition.error));
         }
-        String name = ((FunctionDeclarationTree)(cut.getSourceElements().get(0))).getName().getName();
-        String checkSum = DatatypeConverter.printHexBinary(MESSAGE_DIGEST.digest(script.getBytes(StandardCharsets.UTF_8))).toUpperCase();
-        if (validate(publicName, name)) {
+        if (validate(publicName, definition.name)) {
             UpdatedStatus updatedStatus = UpdatedStatus.getInstance(db) ;
             updatedStatus.updateTimestamp(txn, ZonedDateTime.now());
             Node n = txn.findNode(StoredProcedureEngine.JS_FUNCTION, StoredProcedureEngine.PublicName, publicName);
             if(n == null) {
                 n = txn.createNode(StoredProcedureEngine.JS_FUNCTION);
                 n.setProperty(StoredProcedureEngine.PublicName, publicName);
-                n.setProperty(StoredProcedureEngine.FunctionName, name);
+                n.setProperty(StoredProcedureEngine.FunctionName, definition.name);
                 n.setProperty(StoredProcedureEngine.LastUpdatedime, updatedStatus.getLastUpdated());
-                n.setProperty(StoredProcedureEngine.CheckSum, checkSum);
-            } else if(String.valueOf(n.getProperty(StoredProcedureEngine.CheckSum)).equals(checkSum)) {
+                n.setProperty(StoredProcedureEngine.CheckSum, definition.checkSum);
+            } else if(definition.isUnchanged(n)) {
                 return Stream.of(RegisterResult.NO_CHANGE);
             }
-            n.setProperty(StoredProcedureEngine.CheckSum, checkSum);
+            if(config != null) {
+                n.setProperty(StoredProcedureEngine.Timeout, definition.timeout);
+                n.setProperty(StoredProcedureEngine.Profile, definition.profile.getName());
+                setBackend(n, definition);
+                setWarmUp(n, definition);
+                n.setProperty(StoredProcedureEngine.CacheSize, definition.cacheSize);
+                n.setProperty(StoredProcedureEngine.CacheTtl, definition.cacheTtl);
+            }
+            n.setProperty(StoredProcedureEngine.CheckSum, definition.checkSum);
             n.setProperty(StoredProcedureEngine.Script, script);
             n.setProperty(StoredProcedureEngine.LastUpdatedime, updatedStatus.getLastUpdated());
-            StoredProcedureEngine.getStoredProcedureEngine(null).loadProcedure(db, txn, publicName, updatedStatus);
             return Stream.of(RegisterResult.SUCCESS);
         } else {
             throw new RuntimeException("Function Name not unique");
@@ -174,49 +213,320 @@ public class StoredProcedureAPI {
             result.put("error", "Procedure doesn't exist or cannot be loaded into ScriptEngine.");
         } else {
             if(parameters == null) {
-                parameters = new HashMap();
+                parameters = new HashMap<>();
             }
             parameters.put("txn", txn);
             parameters.put("log", log);
             try {
-                Invocable invocable = (Invocable) details.getEngine();
-                Object response = invocable.invokeFunction(details.getName(), parameters);
-                result.put("result", response);
+                Object response = details.invoke(parameters);
+                long converting = System.nanoTime();
+                result.put("result", ScriptValueConverter.toJava(response));
+                details.getMetrics().recordConversion(System.nanoTime() - converting);
             } catch (Exception e) {
                 log.error("Something went wrong", e);
 //                result.put("error", e.getMessage());
                 throw new RuntimeException(e.getMessage()) ;
+            } finally {
+                details.release();
             }
         }
         return Stream.of(new MapResult(result));
     }
 
+    /**
+     * Invokes the procedure like js.procedure.invoke and returns its result with a breakdown of the invocation,
+     * like Cypher PROFILE does for a query. Iterators and generator callbacks are drained into a list as
+     * js.procedure.stream would pull them, the script runs while they are pulled.
+     *
+     * @param procedureName
+     * @param parameters
+     * @return
+     */
+    @Procedure(name = "js.procedure.profile", mode = Mode.WRITE)
+    @Description("js.procedure.profile(<String procPublicName)>, {Proc Params}) - Invoke a procedure and break down its time (in microseconds), db calls, allocations and result size")
+    public Stream<ProfileResult> profileStoredProcedure(@Name("procedureName") String procedureName, @Name(value = "parameters") Map<String, Object> parameters) {
+        InvocationProfile profile = InvocationProfile.start(txn);
+        Object result = null;
+        try {
+            long start = System.nanoTime();
+            ScriptDetails details = StoredProcedureEngine.getStoredProcedureEngine(null).getEngine(db, txn, procedureName);
+            profile.lookedUp(System.nanoTime() - start);
+            if (details == null) {
+                throw new RuntimeException("Procedure doesn't exist or cannot be loaded into ScriptEngine.");
+            }
+            if(parameters == null) {
+                parameters = new HashMap<>();
+            }
+            parameters.put("txn", txn);
+            parameters.put("log", log);
+            try {
+                long executing = System.nanoTime();
+                Object response = details.invoke(parameters);
+                profile.executed(System.nanoTime() - executing);
+                long converting = System.nanoTime();
+                if (ScriptResultIterator.isLazy(response)) {
+                    Iterator<?> rows = details.rows(response);
+                    List<Object> elements = new ArrayList<>();
+                    while (true) {
+                        long pulling = System.nanoTime();
+                        boolean hasNext = rows.hasNext();
+                        Object row = hasNext ? rows.next() : null;
+                        profile.executed(System.nanoTime() - pulling);
+                        if (!hasNext) {
+                            break;
+                        }
+                        converting = System.nanoTime();
+                        elements.add(ScriptValueConverter.toJava(row));
+                        profile.converted(System.nanoTime() - converting);
+                    }
+                    result = elements;
+                } else {
+                    result = ScriptValueConverter.toJava(response);
+                    profile.converted(System.nanoTime() - converting);
+                }
+                details.getMetrics().recordConversion(profile.conversionNanos);
+                profile.resultOf(result);
+            } catch (Exception e) {
+                log.error("Something went wrong", e);
+                throw new RuntimeException(e.getMessage()) ;
+            } finally {
+                details.release();
+            }
+        } finally {
+            profile.stop();
+        }
+        return Stream.of(new ProfileResult(procedureName, result, profile));
+    }
+
+    /**
+     * Streams the elements of the iterator, array or generator callback returned by the procedure
+     * as individual rows. Rows are produced as they are pulled, the script engine stays borrowed
+     * until the stream is closed.
+     *
+     * @param procedureName
+     * @param parameters
+     * @return
+     */
+    @Procedure(name = "js.procedure.stream", mode = Mode.WRITE)
+    @Description("js.procedure.stream(<String procPublicName)>, {Proc Params}) - Stream the returned iterator one row at a time")
+    public Stream<MapResult> streamStoredProcedure(@Name("procedureName") String procedureName, @Name(value = "parameters") Map<String, Object> parameters) {
+        ScriptDetails details = StoredProcedureEngine.getStoredProcedureEngine(null).getEngine(db, txn, procedureName);
+
+        if (details == null) {
+            Map<String, Object> result = new HashMap<>();
+            result.put("error", "Procedure doesn't exist or cannot be loaded into ScriptEngine.");
+            return Stream.of(new MapResult(result));
+        }
+        if(parameters == null) {
+            parameters = new HashMap<>();
+        }
+        parameters.put("txn", txn);
+        parameters.put("log", log);
+        Iterator<?> rows;
+        try {
+            rows = details.rows(details.invoke(parameters));
+        } catch (Exception e) {
+            details.release();
+            log.error("Something went wrong", e);
+            throw new RuntimeException(e.getMessage()) ;
+        }
+        return streamRows(details, rows);
+    }
+
+    /**
+     * Resolves the procedure once and invokes it for every parameter map in the list, streaming one row per input.
+     * With {vectorized: true} in the config the function is called once with the whole list as params['batch']
+     * and every element of the returned iterator or array becomes a row.
+     *
+     * @param procedureName
+     * @param batch
+     * @param config
+     * @return
+     */
+    @Procedure(name = "js.procedure.invokeBatch", mode = Mode.WRITE)
+    @Description("js.procedure.invokeBatch(<String procPublicName)>, [{Proc Params}], {vectorized: false}) - Invoke a procedure once per parameter map")
+    public Stream<MapResult> invokeBatch(@Name("procedureName") String procedureName,
+                                         @Name(value = "batch") List<Map<String, Object>> batch,
+                                         @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        ScriptDetails details = StoredProcedureEngine.getStoredProcedureEngine(null).getEngine(db, txn, procedureName);
+
+        if (details == null) {
+            Map<String, Object> result = new HashMap<>();
+            result.put("error", "Procedure doesn't exist or cannot be loaded into ScriptEngine.");
+            return Stream.of(new MapResult(result));
+        }
+        if(batch == null) {
+            batch = Collections.emptyList();
+        }
+        if(config != null && Boolean.TRUE.equals(config.get("vectorized"))) {
+            Map<String, Object> parameters = new HashMap<>();
+            parameters.put("batch", batch);
+            parameters.put("txn", txn);
+            parameters.put("log", log);
+            Iterator<?> rows;
+            try {
+                rows = details.rows(details.invoke(parameters));
+            } catch (Exception e) {
+                details.release();
+                log.error("Something went wrong", e);
+                throw new RuntimeException(e.getMessage()) ;
+            }
+            return streamRows(details, rows);
+        }
+
+        Iterator<Map<String, Object>> inputs = batch.iterator();
+        return streamRows(details, new Iterator<Object>() {
+            @Override
+            public boolean hasNext() {
+                return inputs.hasNext();
+            }
+
+            @Override
+            public Object next() {
+                Map<String, Object> input = inputs.next();
+                Map<String, Object> parameters = input == null ? new HashMap<>() : new HashMap<>(input);
+                parameters.put("txn", txn);
+                parameters.put("log", log);
+                try {
+                    return details.invoke(parameters);
+                } catch (Exception e) {
+                    log.error("Something went wrong", e);
+                    throw new RuntimeException(e.getMessage()) ;
+                }
+            }
+        });
+    }
+
+    /**
+     * Streams the rows of the source query and invokes the procedure once per batch of rows, every batch in
+     * its own transaction on a bounded worker pool. The function gets the rows as params['batch'] and the
+     * transaction of the batch as params['txn'].
+     * Config: batchSize (1000), parallel (false), concurrency (engine pool size), retries (0) and params for the source query.
+     *
+     * @param procedureName
+     * @param sourceQuery
+     * @param config
+     * @return
+     */
+    @Procedure(name = "js.procedure.iterate", mode = Mode.WRITE)
+    @Description("js.procedure.iterate(<String procPublicName)>, <Source Query>, {batchSize: 1000, parallel: false, concurrency: <pool size>, retries: 0, params: {}}) - Invoke a procedure per batch of source rows, each batch in its own transaction")
+    public Stream<IterateResult> iterate(@Name("procedureName") String procedureName,
+                                         @Name("sourceQuery") String sourceQuery,
+                                         @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        if(config == null) {
+            config = Collections.emptyMap();
+        }
+        StoredProcedureEngine engine = StoredProcedureEngine.getStoredProcedureEngine(null);
+        ScriptDetails details = engine.getEngine(db, txn, procedureName);
+        if (details == null) {
+            throw new RuntimeException("Procedure doesn't exist or cannot be loaded into ScriptEngine.") ;
+        }
+        details.release();
+
+        int batchSize = intConfig(config, "batchSize", 1000);
+        int retries = intConfig(config, "retries", 0);
+        // Workers beyond the size of the engine pool would only wait for an engine while holding a transaction open.
+        ScriptRegistry registry = engine.getRegistry(db.databaseName());
+        int poolSize = registry == null ? 1 : registry.getPool().getSize();
+        int concurrency = Boolean.TRUE.equals(config.get("parallel"))
+                ? Math.min(intConfig(config, "concurrency", poolSize), poolSize)
+                : 1;
+        if(batchSize < 1 || concurrency < 1 || retries < 0) {
+            throw new IllegalArgumentException("batchSize and concurrency must be positive and retries must not be negative") ;
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> params = config.get("params") instanceof Map ? (Map<String, Object>) config.get("params") : Collections.emptyMap();
+
+        try (Result source = txn.execute(sourceQuery, params)) {
+            return Stream.of(new PeriodicIterate(db, log, procedureName, batchSize, concurrency, retries).run(source));
+        }
+    }
+
+    private static int intConfig(Map<String, Object> config, String key, int defaultValue) {
+        Object value = config.get(key);
+        return value instanceof Number ? ((Number) value).intValue() : defaultValue;
+    }
+
+    private Stream<MapResult> streamRows(ScriptDetails details, Iterator<?> rows) {
+        Spliterator<Object> spliterator = Spliterators.spliteratorUnknownSize(new Iterator<Object>() {
+            @Override
+            public boolean hasNext() {
+                if (rows.hasNext()) {
+                    return true;
+                }
+                details.release();
+                return false;
+            }
+
+            @Override
+            public Object next() {
+                return rows.next();
+            }
+        }, Spliterator.ORDERED);
+        ProcedureMetrics metrics = details.getMetrics();
+        return StreamSupport.stream(spliterator, false)
+                .map(row -> {
+                    long converting = System.nanoTime();
+                    MapResult result = new MapResult(Collections.singletonMap("result", ScriptValueConverter.toJava(row)));
+                    metrics.recordConversion(System.nanoTime() - converting);
+                    return result;
+                })
+                .onClose(details::release);
+    }
+
     @Procedure(name = "js.function.invoke", mode = Mode.READ)
     @Description("js.function.invoke(<String functionPublicName)>, {Function Params}")
     public Stream<MapResult> invokeFunction(@Name("functionName") String functionName, @Name(value = "parameters") Map<String, Object> parameters) {
         Map<String, Object> result = new HashMap<>();
+        ResultCache cache = StoredProcedureEngine.getStoredProcedureEngine(null).getResultCache(db, functionName);
+        String key = cache == null ? null : cache.key(parameters == null ? Collections.emptyMap() : parameters);
+        Object cached = key == null ? null : cache.get(key);
+        if (cached != null) {
+            result.put("result", ResultCache.isNull(cached) ? null : cached);
+            return Stream.of(new MapResult(result));
+        }
         ScriptDetails details = StoredProcedureEngine.getStoredProcedureEngine(null).getEngine(db, txn, functionName);
 
         if (details == null) {
             result.put("error", "Procedure doesn't exist or cannot be loaded into ScriptEngine.");
         } else {
             if(parameters == null) {
-                parameters = new HashMap();
+                parameters = new HashMap<>();
+            }
+            if(cache == null && details.getResultCache() != null) {
+                // The lookup brought the script up to date.
+                cache = details.getResultCache();
+                key = cache.missedKey(parameters);
             }
             parameters.put("txn", txn);
             parameters.put("log", log);
             try {
-                Invocable invocable = (Invocable) details.getEngine();
-                Object response = invocable.invokeFunction(details.getName(), parameters);
-                result.put("result", response);
+                Object response = details.invoke(parameters);
+                long converting = System.nanoTime();
+                Object converted = ScriptValueConverter.toJava(response);
+                result.put("result", converted);
+                details.getMetrics().recordConversion(System.nanoTime() - converting);
+                if (key != null) {
+                    cache.put(key, converted);
+                }
             } catch (Exception e) {
                 log.error("Something went wrong", e);
                 result.put("error", e.getMessage());
+            } finally {
+                details.release();
             }
         }
         return Stream.of(new MapResult(result));
     }
 
+    @Procedure(name = "js.procedure.stats", mode = Mode.READ)
+    @Description("js.procedure.stats() - Invocation counts and latencies (in microseconds) of the stored procedures of this database")
+    public Stream<StatsResult> stats() {
+        Map<String, ProcedureMetrics> metrics = StoredProcedureEngine.getStoredProcedureEngine(null).getMetrics(db.databaseName());
+        return new TreeMap<>(metrics).entrySet().stream()
+                .map(entry -> new StatsResult(entry.getKey(), entry.getValue()));
+    }
+
     private boolean validate(String publicName, String name) {
         ValidationStatusCode status = StoredProcedureEngine.getStoredProcedureEngine(null).validateFunction(db.databaseName(), publicName, name);
         if(status == ValidationStatusCode.NAME_MISSING || status == ValidationStatusCode.PUBLIC_NAME_MISSING) {
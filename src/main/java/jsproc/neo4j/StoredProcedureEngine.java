@@ -1,16 +1,31 @@
 package jsproc.neo4j;
 
+import org.neo4j.configuration.Config;
+import org.neo4j.configuration.GraphDatabaseSettings;
 import org.neo4j.graphdb.*;
+import org.neo4j.internal.kernel.api.exceptions.ProcedureException;
+import org.neo4j.internal.kernel.api.procs.ProcedureSignature;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.api.procedure.GlobalProcedures;
+import org.neo4j.kernel.api.txstate.TransactionState;
+import org.neo4j.kernel.api.txstate.TxStateHolder;
+import org.neo4j.kernel.impl.coreapi.InternalTransaction;
 import org.neo4j.kernel.internal.GraphDatabaseAPI;
 import org.neo4j.logging.Log;
 
 
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
-import java.time.ZonedDateTime;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 public class StoredProcedureEngine {
     public static Label JS_StoredProcedure = Label.label("JS_StoredProcedure");
@@ -18,11 +33,13 @@ public class StoredProcedureEngine {
     public static Label JS_ProcedureLock = Label.label("JS_ProcedureLock");
     public static Label JS_FUNCTION = Label.label("JS_FUNCTION");
 
-    private static  final ScriptEngineManager scriptFactory = new ScriptEngineManager();
-    private static Map<String, ScriptEngine> dbScriptEngineMap = new HashMap<>();
-    private static Map<String, Map<String, ScriptStatus>> dbScriptPublicNameMap = new HashMap<>();
-    private static Map<String, Map<String, ScriptStatus>> dbScriptNameMap = new HashMap<>();
-    private static Map<String, ZonedDateTime> dbScriptLastUpdate = new HashMap<>();
+    private static final Map<String, CompiledScriptCache> compiledScriptCaches = new ConcurrentHashMap<>();
+    private static volatile PersistentCodeCache persistentCodeCache;
+    private static volatile boolean codeCacheConfigured = false;
+    private static final Map<String, ScriptRegistry> dbScriptRegistryMap = new ConcurrentHashMap<>();
+    private static final Map<String, LoadProgress> dbLoadProgressMap = new ConcurrentHashMap<>();
+    // Compiles the scripts of committed transactions, its workers are daemon threads.
+    private static final ForkJoinPool backgroundCompilePool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
 
     public static final String PublicName = "publicName";
     public static final String FunctionName = "name";
@@ -32,6 +49,18 @@ public class StoredProcedureEngine {
     public static final String LastUpdatedime = "lastUpdatedTime";
     public static final String LoadOnStartup = "loadOnStartup";
     public static final String LoadInterval = "loadInterval";
+    public static final String Mode = "mode";
+    public static final String Inputs = "inputs";
+    public static final String Outputs = "outputs";
+    public static final String Timeout = "timeout";
+    public static final String Profile = "profile";
+    public static final String Backend = "backend";
+    public static final String WarmUp = "warmup";
+    public static final String Hot = "hot";
+    public static final String WarmUpSamples = "warmupSamples";
+    public static final String Cache = "cache";
+    public static final String CacheSize = "cacheSize";
+    public static final String CacheTtl = "cacheTtl";
 
     public static final String BasicDBClasses = "basicDBClasses";
     public static final String OtherClasses = "otherClasses";
@@ -54,13 +83,20 @@ public class StoredProcedureEngine {
 
     private Log log;
 
-    private static StoredProcedureEngine thisEngine;
+    private static volatile StoredProcedureEngine thisEngine;
 
-    public static synchronized StoredProcedureEngine getStoredProcedureEngine(Log log) {
-        if(thisEngine == null) {
-            thisEngine = new StoredProcedureEngine(log);
+    public static StoredProcedureEngine getStoredProcedureEngine(Log log) {
+        StoredProcedureEngine engine = thisEngine;
+        if(engine == null) {
+            synchronized (StoredProcedureEngine.class) {
+                engine = thisEngine;
+                if(engine == null) {
+                    engine = new StoredProcedureEngine(log);
+                    thisEngine = engine;
+                }
+            }
         }
-        return thisEngine;
+        return engine;
     }
 
     private StoredProcedureEngine(Log log) {
@@ -72,63 +108,241 @@ public class StoredProcedureEngine {
 
     public void loadStoredProcedures(GraphDatabaseAPI db) {
         String dbName = db.databaseName();
-        ScriptEngine engine = scriptFactory.getEngineByName("nashorn");
+        Config config = db.getDependencyResolver().resolveDependency(Config.class);
+        int poolSize = config.get(JSProcedureSettings.engine_pool_size);
+        long engineWaitMillis = config.get(JSProcedureSettings.engine_wait_timeout).toMillis();
+        int maxResident = config.get(JSProcedureSettings.max_resident_scripts);
+        long maxExecutionMillis = config.get(JSProcedureSettings.max_execution_time).toMillis();
+        long warmUpMillis = config.get(JSProcedureSettings.warmup_budget).toMillis();
+        configureEngines(config);
 
         log.info("Loading Stored procedures for Database : " + dbName);
         log.info("This class : " + this);
-        dbScriptEngineMap.put(dbName, engine);
+        UpdatedStatus updatedStatus = UpdatedStatus.getInstance(db);
+        updatedStatus.refresh(db);
+        long version = updatedStatus.getVersion();
 
+        ScriptRegistry registry;
+        List<ScriptSource> sources = new ArrayList<>();
         try (Transaction tx = db.beginTx()) {
             log.debug("Cleared to load Stored Proc Nodes from DB");
 
-            try {
-                ResourceIterator<Node> requiredClasses  = tx.findNodes(JS_RequiredClasses);
-                if(requiredClasses.hasNext()) {
-                        Node n = requiredClasses.next();
-                        log.debug("Loading Basic Database classes");
-                        String classText;
-                        if (n.hasProperty(BasicDBClasses)) {
-                            classText = n.getProperty(BasicDBClasses).toString();
-                        } else {
-                            classText = DBBasicClasses;
-                        }
-                        engine.eval(classText);
-                        log.debug("Loading Other Required classes");
-                        if (n.hasProperty(OtherClasses)) {
-                            classText = n.getProperty(OtherClasses).toString();
-                        } else {
-                            classText = OtherRequiredClasses;
-                        }
-                        engine.eval(classText);
-                    log.debug("Loaded required class definitions.");
-                } else {
-                    engine.eval(DBBasicClasses);
-                    engine.eval(OtherRequiredClasses);
-                    log.debug("Loaded default class definitions.");
-                }
-            } catch(ScriptException e) {
-                log.error("Could not load stored JS Script due to eval error. See message", e);
+            List<String> requiredClassText = new ArrayList<>();
+            ResourceIterator<Node> requiredClasses  = tx.findNodes(JS_RequiredClasses);
+            if(requiredClasses.hasNext()) {
+                    Node n = requiredClasses.next();
+                    log.debug("Loading Basic Database classes");
+                    if (n.hasProperty(BasicDBClasses)) {
+                        requiredClassText.add(n.getProperty(BasicDBClasses).toString());
+                    } else {
+                        requiredClassText.add(DBBasicClasses);
+                    }
+                    log.debug("Loading Other Required classes");
+                    if (n.hasProperty(OtherClasses)) {
+                        requiredClassText.add(n.getProperty(OtherClasses).toString());
+                    } else {
+                        requiredClassText.add(OtherRequiredClasses);
+                    }
+                log.debug("Loaded required class definitions.");
+            } else {
+                requiredClassText.add(DBBasicClasses);
+                requiredClassText.add(OtherRequiredClasses);
+                log.debug("Loaded default class definitions.");
             }
 
+            ScriptClassFilter.FILTER.expose(dbName, requiredClassText);
+            registry = new ScriptRegistry(new ScriptEnginePool(dbName, compiledScriptCache(ScriptBackends.getDefault(), EngineProfile.DEFAULT), requiredClassText, poolSize, engineWaitMillis, log), maxResident, maxExecutionMillis, warmUpMillis);
             ResourceIterator<Node> procNodes = tx.findNodes(JS_StoredProcedure);
-            Map<String, ScriptStatus> publicNameMap = new HashMap<>();
-            Map<String, ScriptStatus> nameMap = new HashMap<>();
-            dbScriptPublicNameMap.put(dbName, publicNameMap);
-            dbScriptNameMap.put(dbName, nameMap);
-            procNodes.stream().forEach(n -> {
+            procNodes.stream().forEach(n -> sources.add(new ScriptSource(n)));
+            ResourceIterator<Node> functionNodes = tx.findNodes(JS_FUNCTION);
+            functionNodes.stream().forEach(n -> sources.add(new ScriptSource(n)));
+        }
+
+        // Compile outside of the read transaction and in parallel, then install all scripts at once.
+        LoadProgress progress = new LoadProgress(dbName, sources.size(), log);
+        dbLoadProgressMap.put(dbName, progress);
+        registry.putAll(compileAll(registry, sources, version, progress));
+
+        // Warm up one engine before publishing the registry, so the first invocation doesn't pay for it.
+        registry.getPool().release(registry.getPool().borrow());
+        ScriptRegistry previous = dbScriptRegistryMap.put(dbName, registry);
+        if( previous != null ) {
+            // The database was restarted, its old registry no longer holds its compiled scripts.
+            previous.getScripts().stream().filter(data -> data.loaded).forEach(data -> release(previous, data));
+        }
+        sources.forEach(source -> {
+            if( source.function ) {
+                registerUserFunction(db, source.publicName);
+            } else {
+                registerProcedure(db, source);
+            }
+        });
+        warmUp(db, registry, sources, progress);
+        log.info(String.format("Loaded %d stored procedures for Database : %s with an engine pool of size %d", registry.size(), dbName, poolSize));
+        if( persistentCodeCache != null ) {
+            persistentCodeCache.cleanUp();
+        }
+    }
+
+    /**
+     * The engines are shared by all databases, so the config of the first database loaded decides
+     * whether compiled scripts are kept in the code cache and which backend is the default.
+     */
+    private void configureEngines(Config config) {
+        if(!codeCacheConfigured) {
+            synchronized (StoredProcedureEngine.class) {
+                if(!codeCacheConfigured) {
+                    try {
+                        ScriptBackends.setDefault(ScriptBackends.of(config.get(JSProcedureSettings.default_backend)));
+                    } catch (IllegalArgumentException e) {
+                        log.warn("Using the default backend " + ScriptBackends.getDefault().getName() + ": " + e.getMessage());
+                    }
+                    if( config.get(JSProcedureSettings.code_cache_enabled) ) {
+                        persistentCodeCache = new PersistentCodeCache(config.get(GraphDatabaseSettings.data_directory),
+                                config.get(JSProcedureSettings.code_cache_max_size), log);
+                        log.info("Using the code cache in " + persistentCodeCache.getRoot());
+                    }
+                    codeCacheConfigured = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the compiled scripts of the shared engine of a backend and profile, which is created on first use
+     */
+    private static CompiledScriptCache compiledScriptCache(ScriptBackend backend, EngineProfile profile) {
+        return compiledScriptCaches.computeIfAbsent(backend.getName() + "/" + profile.getName(),
+                key -> new CompiledScriptCache(backend.newEngine(profile, persistentCodeCache), backend));
+    }
+
+    /**
+     * @return the number of compiled scripts kept for all databases
+     */
+    static int compiledScriptCount() {
+        return compiledScriptCaches.values().stream().mapToInt(CompiledScriptCache::size).sum();
+    }
+
+    private List<ScriptStatus> compileAll(ScriptRegistry registry, List<ScriptSource> sources, long version, LoadProgress progress) {
+        ForkJoinPool compilePool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        AtomicInteger residentBudget = new AtomicInteger(registry.getMaxResident());
+        try {
+            return compilePool.submit(() -> sources.parallelStream().map(source -> {
+                if( !source.loadOnStartup || residentBudget.getAndDecrement() <= 0 ) {
+                    // Deferred to the first invocation.
+                    progress.deferred();
+                    return newScriptStatus(source, false, version);
+                }
                 try {
-                    loadScriptIntoEngine(engine, publicNameMap, nameMap, n, false);
+                    ScriptStatus data = loadScriptIntoEngine(registry, source, false, version);
+                    progress.compiled();
+                    return data;
+                } catch(ScriptException e) {
+                    log.error("Could not load stored JS Script due to eval error. See message", e);
+                    progress.failed();
+                    return newScriptStatus(source, false, version);
+                }
+            }).collect(Collectors.toList())).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while loading stored procedures", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Could not load stored procedures", e.getCause());
+        } finally {
+            compilePool.shutdown();
+        }
+    }
+
+    /**
+     * Makes the new procedures and functions of a committed transaction callable and loads their scripts in the
+     * background, so neither the registering transaction nor its commit waits for the compiler. Scripts are only
+     * loaded ahead while the registry has room for them or replace a resident one, the others are left to their
+     * first invocation. An invocation that comes first loads the script itself, see {@link #loadProcedure}.
+     */
+    void scriptsCommitted(GraphDatabaseAPI db, List<ScriptSource> sources) {
+        ScriptRegistry registry = dbScriptRegistryMap.get(db.databaseName());
+        if( registry == null || sources.isEmpty() ) {
+            return;
+        }
+        for( ScriptSource source : sources ) {
+            if( source.function ) {
+                registerUserFunction(db, source.publicName);
+            } else {
+                registerProcedure(db, source);
+            }
+        }
+        long version = UpdatedStatus.getInstance(db).getVersion();
+        backgroundCompilePool.execute(() -> {
+            sources.parallelStream().forEach(source -> {
+                ScriptStatus data = registry.getByPublicName(source.publicName);
+                boolean resident = data != null && data.loaded;
+                if( resident && data.readVersion >= version
+                        || !resident && registry.getResident() >= registry.getMaxResident()
+                        || ScriptEnginePool.isReserved(source.name) ) {
+                    return;
+                }
+                try {
+                    install(registry, loadScriptIntoEngine(registry, source, true, version));
                 } catch(ScriptException e) {
                     log.error("Could not load stored JS Script due to eval error. See message", e);
                 }
             });
+            warmUp(db, registry, sources, null);
+        });
+    }
+
+    /**
+     * Warms up the hot scripts among the sources on the warm-up thread, each within its share of the remaining
+     * budget. A load is only finished once its scripts are warm.
+     *
+     * @param progress the progress of a load, null for scripts of a commit
+     */
+    private void warmUp(GraphDatabaseService db, ScriptRegistry registry, List<ScriptSource> sources, LoadProgress progress) {
+        List<ScriptSource> hot = sources.stream().filter(source -> source.hot && ScriptWarmUp.canWarmUp(source.function, source.mode))
+                .collect(Collectors.toList());
+        if( hot.isEmpty() || registry.getWarmUpMillis() <= 0 ) {
+            if( progress != null ) {
+                progress.finished();
+            }
+            return;
         }
+        ScriptWarmUp.submit(() -> {
+            try {
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(registry.getWarmUpMillis());
+                for( int i = 0; i < hot.size(); i++ ) {
+                    long remaining = deadline - System.nanoTime();
+                    if( remaining <= 0 ) {
+                        log.info(String.format("Warm-up budget exhausted, %d hot scripts stay cold", hot.size() - i));
+                        break;
+                    }
+                    ScriptSource source = hot.get(i);
+                    List<Map<String, Object>> samples = new ArrayList<>(source.samples);
+                    samples.addAll(registry.getSamples(source.publicName).get());
+                    if( !samples.isEmpty() && ScriptWarmUp.warmUp(this, db, registry, source.publicName, samples,
+                            System.nanoTime() + remaining / (hot.size() - i), log) && progress != null ) {
+                        progress.warmedUp();
+                    }
+                }
+            } finally {
+                if( progress != null ) {
+                    progress.finished();
+                }
+            }
+        });
+    }
+
+    public LoadProgress getLoadProgress(String dbName) {
+        return dbLoadProgressMap.get(dbName);
     }
 
     public ScriptDetails getEngine(GraphDatabaseService db, Transaction tx, String procedureName) {
-        String dbName = db.databaseName();
-        Map<String, ScriptStatus> publicNameMap = dbScriptPublicNameMap.get(dbName);
-        ScriptStatus data = publicNameMap.get(procedureName);
+        long start = System.nanoTime();
+        ScriptRegistry registry = dbScriptRegistryMap.get(db.databaseName());
+        if( registry == null ) {
+            // Stored procedures of this database are not loaded yet.
+            return null;
+        }
+        ScriptStatus data = registry.getByPublicName(procedureName);
 
         if( (data != null && data.disabled) ) {
             // Procedure is disabled.
@@ -138,29 +352,76 @@ public class StoredProcedureEngine {
         ScriptDetails details = new ScriptDetails();
         UpdatedStatus updatedStatus = UpdatedStatus.getInstance(db) ;
 
-        ScriptEngine engine = dbScriptEngineMap.get(dbName);
-        details.setEngine(engine);
-        if( ( data == null || updatedStatus.getLastUpdated().isAfter(data.lastReadTime) )
-                && !loadProcedure(db, tx, procedureName, updatedStatus)) {
-            //Procedure doesn't exist and cannot be loaded into ScriptEngine
-            return null;
+        if( data == null || !data.loaded ) {
+            registry.miss();
+        } else {
+            registry.hit(data);
         }
 
+        if( data == null || !data.loaded || data.readVersion != updatedStatus.getVersion() ) {
+            if(!loadProcedure(db, tx, procedureName, updatedStatus)) {
+                //Procedure doesn't exist and cannot be loaded into ScriptEngine
+                return null;
+            }
+            data = registry.getByPublicName(procedureName);
+        }
+
+        ScriptEnginePool pool = registry.getPool();
+        ScriptEnginePool.PooledEngine engine = pool.borrow(tx);
+        if( !pool.isDefined(data.functionName) ) {
+            // Evicted between the lookup and the borrow.
+            pool.release(engine);
+            registry.miss();
+            if(!loadProcedure(db, tx, procedureName, updatedStatus)) {
+                return null;
+            }
+            data = registry.getByPublicName(procedureName);
+            engine = pool.borrow(tx);
+        }
+        details.setEngine(pool, engine);
+        details.setBackend(data.backend);
         details.setName(data.functionName);
         details.setPublicName(procedureName);
+        details.setMetrics(registry.getMetrics(procedureName));
+        details.setSamples(data.hot ? registry.getSamples(procedureName) : null);
+        details.setResultCache(data.cacheSize > 0 ? registry.getResultCache(data) : null);
+        details.setTimeoutMillis(timeoutMillis(data.timeoutMillis, registry.getMaxExecutionMillis()));
+        details.bind(db, tx, registry.getQueries(data));
+        details.getMetrics().recordLookup(System.nanoTime() - start);
         return details;
     }
 
+    /**
+     * @return the result cache of a function whose results are cached, null if they are not or its script may be outdated
+     */
+    public ResultCache getResultCache(GraphDatabaseService db, String publicName) {
+        ScriptRegistry registry = dbScriptRegistryMap.get(db.databaseName());
+        ScriptStatus data = registry == null ? null : registry.getByPublicName(publicName);
+        if( data == null || data.cacheSize <= 0 || !data.loaded || data.disabled
+                || data.readVersion != UpdatedStatus.getInstance(db).getVersion() ) {
+            return null;
+        }
+        return registry.getResultCache(data);
+    }
+
+    public ScriptRegistry getRegistry(String dbName) {
+        return dbScriptRegistryMap.get(dbName);
+    }
+
+    public Map<String, ProcedureMetrics> getMetrics(String dbName) {
+        ScriptRegistry registry = dbScriptRegistryMap.get(dbName);
+        return registry == null ? Collections.emptyMap() : registry.getMetrics();
+    }
+
     public ValidationStatusCode validateFunction(String dbName, String publicName, String name) {
-        Map<String, ScriptStatus> publicNameMap = dbScriptPublicNameMap.get(dbName);
-        Map<String, ScriptStatus> nameMap = dbScriptNameMap.get(dbName);
+        ScriptRegistry registry = dbScriptRegistryMap.get(dbName);
 
-        if(publicNameMap == null || nameMap == null) {
+        if(registry == null) {
             return ValidationStatusCode.NO_DATABASE_MATCH;
         }
 
-        ScriptStatus savedPublicNameMap = nameMap.get(name);
-        ScriptStatus savedNameMap = publicNameMap.get(publicName);
+        ScriptStatus savedPublicNameMap = registry.getByName(name);
+        ScriptStatus savedNameMap = registry.getByPublicName(publicName);
 
         if(savedPublicNameMap == null) {
             return ValidationStatusCode.PUBLIC_NAME_MISSING;
@@ -181,21 +442,43 @@ public class StoredProcedureEngine {
     }
 
     public boolean loadProcedure(GraphDatabaseService db, Transaction tx, String publicName, UpdatedStatus updatedStatus) {
-        log.info("This class : " + this );
-        String dbName = db.databaseName();
-        ScriptEngine engine = dbScriptEngineMap.get(dbName);
-        Map<String, ScriptStatus> publicNameMap = dbScriptPublicNameMap.get(dbName);
-        Map<String, ScriptStatus> nameMap = dbScriptNameMap.get(dbName);
-        ScriptStatus data = publicNameMap.get(publicName);
+        long version = updatedStatus.getVersion();
+        ScriptRegistry registry = dbScriptRegistryMap.get(db.databaseName());
+        if( registry == null ) {
+            return false;
+        }
+        ScriptStatus data = registry.getByPublicName(publicName);
 
         Node n = tx.findNode(JS_StoredProcedure, PublicName, publicName);
+        if (n == null) {
+            n = tx.findNode(JS_FUNCTION, PublicName, publicName);
+        }
         try {
-            if (n != null) {
-                ZonedDateTime lastUpdated = (ZonedDateTime) n.getProperty(LastUpdatedime);
-                if( data == null || lastUpdated.isBefore(data.lastReadTime) ) {
-                    loadScriptIntoEngine(engine, publicNameMap, nameMap, n, true);
+            if (n != null && isUncommitted(tx, n)) {
+                // Written by this transaction, which may still roll back. The engines keep the committed script
+                // until the change is committed, see scriptsCommitted.
+                return data != null && data.loaded && registry.getPool().isDefined(data.functionName);
+            } else if (n != null) {
+                Object checkSum = n.getProperty(CheckSum, null);
+                if( data == null || !data.loaded || !registry.getPool().isDefined(data.functionName)
+                        || !Objects.equals(data.checkSum, checkSum == null ? null : checkSum.toString())
+                        || data.profile != profile(n) || data.backend != backend(n) ) {
+                    install(registry, loadScriptIntoEngine(registry, new ScriptSource(n), true, version));
+                } else {
+                    data.timeoutMillis = timeout(n);
+                    data.readVersion = version;
+                }
+                if( data == null && n.hasLabel(JS_FUNCTION) ) {
+                    registerUserFunction((GraphDatabaseAPI) db, publicName);
+                } else if( n.hasLabel(JS_StoredProcedure) ) {
+                    registerProcedure((GraphDatabaseAPI) db, new ScriptSource(n));
                 }
                 return true;
+            } else if( data != null ) {
+                // The procedure node was deleted.
+                if( registry.remove(data) && data.loaded ) {
+                    release(registry, data);
+                }
             }
         } catch(ScriptException e) {
             log.error("Could not load stored JS Script due to eval error. See message", e);
@@ -203,44 +486,205 @@ public class StoredProcedureEngine {
         return false;
     }
 
-    private void loadScriptIntoEngine(
-            ScriptEngine engine,
-            Map<String, ScriptStatus> publicNameMap,
-            Map<String, ScriptStatus> nameMap,
-            Node n,
-            boolean forceLoad) throws ScriptException {
-        String pubName = n.getProperty(PublicName).toString();
-        String script = n.getProperty(Script).toString();
-        String name = n.getProperty(FunctionName).toString();
-        boolean loaded = true ;
+    /**
+     * @return whether the transaction created or changed the node, so that the change may still be rolled back
+     */
+    private static boolean isUncommitted(Transaction tx, Node n) {
+        if( !(tx instanceof InternalTransaction) ) {
+            return false;
+        }
+        KernelTransaction ktx = ((InternalTransaction) tx).kernelTransaction();
+        if( !(ktx instanceof TxStateHolder) || !((TxStateHolder) ktx).hasTxStateWithChanges() ) {
+            return false;
+        }
+        long id = ((InternalTransaction) tx).elementIdMapper().nodeId(n.getElementId());
+        TransactionState state = ((TxStateHolder) ktx).txState();
+        return state.nodeIsAddedInThisTx(id) || state.getNodeState(id).hasPropertyChanges();
+    }
 
-        if( !forceLoad ) {
-            Object temp = n.getProperty(LoadOnStartup, null);
-            try {
-                if (temp != null) {
-                    loaded = ((Boolean) temp).booleanValue();
-                }
-            } catch (Exception e) {
+    /**
+     * Makes a registered JS function callable as js.fn.&lt;publicName&gt;(params). The function is registered
+     * once for the whole DBMS and resolves the script of the calling database.
+     */
+    private void registerUserFunction(GraphDatabaseAPI db, String publicName) {
+        GlobalProcedures globalProcedures = db.getDependencyResolver().resolveDependency(GlobalProcedures.class);
+        if( globalProcedures.function(JSUserFunction.qualifiedName(publicName)) != null ) {
+            return;
+        }
+        try {
+            globalProcedures.register(new JSUserFunction(publicName, log));
+            log.debug(String.format("Registered user function: js.fn.%s", publicName));
+        } catch (ProcedureException e) {
+            log.warn(String.format("Could not register user function: js.fn.%s", publicName), e);
+        }
+    }
+
+    /**
+     * Makes a stored procedure callable as js.proc.&lt;publicName&gt; with the inputs, outputs and mode of its config.
+     * The procedure is registered again whenever the declared signature changes.
+     */
+    private void registerProcedure(GraphDatabaseAPI db, ScriptSource source) {
+        GlobalProcedures globalProcedures = db.getDependencyResolver().resolveDependency(GlobalProcedures.class);
+        try {
+            ProcedureSignature signature = JSProcedure.signature(source.publicName, source.mode, source.inputs, source.outputs);
+            if( isRegistered(globalProcedures, signature) ) {
+                return;
             }
+            globalProcedures.register(new JSProcedure(source.publicName, source.mode, source.inputs, source.outputs, log), true);
+            log.debug(String.format("Registered procedure: js.proc.%s", source.publicName));
+        } catch (ProcedureException | IllegalArgumentException e) {
+            log.warn(String.format("Could not register procedure: js.proc.%s", source.publicName), e);
         }
+    }
 
-        log.debug(String.format("Loading script: %s from DB", name));
+    private static boolean isRegistered(GlobalProcedures globalProcedures, ProcedureSignature signature) {
+        try {
+            ProcedureSignature registered = globalProcedures.procedure(signature.name()).signature();
+            return registered.mode() == signature.mode()
+                    && registered.inputSignature().equals(signature.inputSignature())
+                    && registered.outputSignature().equals(signature.outputSignature());
+        } catch (ProcedureException e) {
+            return false;
+        }
+    }
 
-        ScriptStatus data = publicNameMap.get(pubName);
-        if( data == null ) {
-            data = new ScriptStatus() ;
-            data.functionName = name;
-            data.publicName = pubName;
+    private ScriptStatus loadScriptIntoEngine(
+            ScriptRegistry registry,
+            ScriptSource source,
+            boolean forceLoad,
+            long version) throws ScriptException {
+        boolean loaded = forceLoad || source.loadOnStartup ;
 
-            publicNameMap.put(pubName, data);
-            nameMap.put(name, data);
-        }
+        log.debug(String.format("Loading script: %s from DB", source.name));
 
-        data.loaded = loaded ;
-        data.lastReadTime = ZonedDateTime.now() ;
+        ScriptStatus data = newScriptStatus(source, loaded, version) ;
 
+        if( loaded && ScriptEnginePool.isReserved(source.name) ) {
+            // Stored before the name was reserved, defining it would replace the helper for every script.
+            throw new ScriptException(String.format("%s can't be loaded, its function name %s is reserved for the helpers", source.publicName, source.name));
+        }
         if( loaded ) {
-            engine.eval(script);
+            long start = System.nanoTime();
+            CompiledScriptCache compiledScripts = compiledScriptCache(source.backend, source.profile);
+            boolean compiling = !compiledScripts.contains(data.checkSum);
+            if( compiling ) {
+                registry.getMetrics(source.publicName).compiled();
+            }
+            registry.getPool().define(source.name, compiledScripts.acquire(registry, data.checkSum, source.script));
+            InvocationProfile profile = InvocationProfile.current();
+            if( profile != null ) {
+                profile.compiled(compiling, System.nanoTime() - start);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Makes a loaded script resident and evicts the least recently used ones beyond the cap, dropping the
+     * references of the scripts it replaced or evicted on their compiled scripts.
+     */
+    private void install(ScriptRegistry registry, ScriptStatus data) {
+        for( ScriptStatus replaced : registry.put(data) ) {
+            release(registry, replaced);
+        }
+        for( ScriptStatus evicted : registry.evictIfFull() ) {
+            release(registry, evicted);
+            log.debug(String.format("Evicted script: %s from the engines", evicted.functionName));
+        }
+    }
+
+    private static void release(ScriptRegistry registry, ScriptStatus data) {
+        compiledScriptCache(data.backend, data.profile).release(registry, data.checkSum);
+    }
+
+    private static ScriptStatus newScriptStatus(ScriptSource source, boolean loaded, long version) {
+        ScriptStatus data = new ScriptStatus(source.publicName, source.name, source.checkSum, loaded) ;
+        data.readVersion = version ;
+        data.timeoutMillis = source.timeout ;
+        data.profile = source.profile ;
+        data.backend = source.backend ;
+        data.hot = source.hot ;
+        data.cacheSize = source.cacheSize ;
+        data.cacheTtl = source.cacheTtl ;
+        return data;
+    }
+
+    /**
+     * The deadline of a procedure can only be tighter than the global one. 0 means no deadline.
+     */
+    static long timeoutMillis(long procedureTimeout, long globalTimeout) {
+        if( procedureTimeout <= 0 ) {
+            return globalTimeout;
+        }
+        return globalTimeout <= 0 ? procedureTimeout : Math.min(procedureTimeout, globalTimeout);
+    }
+
+    private static long timeout(Node n) {
+        Object temp = n.getProperty(Timeout, null);
+        return temp instanceof Number ? ((Number) temp).longValue() : 0;
+    }
+
+    /**
+     * Falls back to the default backend when the stored one is no longer installed.
+     */
+    private static ScriptBackend backend(Node n) {
+        Object name = n.getProperty(Backend, null);
+        try {
+            return name == null ? ScriptBackends.getDefault() : ScriptBackends.of(name.toString());
+        } catch (IllegalArgumentException e) {
+            return ScriptBackends.getDefault();
+        }
+    }
+
+    private static EngineProfile profile(Node n) {
+        try {
+            return EngineProfile.of(n.getProperty(Profile, EngineProfile.DEFAULT.getName()).toString());
+        } catch (IllegalArgumentException e) {
+            return EngineProfile.DEFAULT;
+        }
+    }
+
+    /**
+     * Script properties read from a procedure node, so they can be compiled outside of the transaction.
+     */
+    static class ScriptSource {
+        private final String publicName;
+        private final String name;
+        private final String script;
+        private final String checkSum;
+        private final boolean loadOnStartup;
+        private final boolean function;
+        private final String mode;
+        private final String[] inputs;
+        private final String[] outputs;
+        private final long timeout;
+        private final EngineProfile profile;
+        private final ScriptBackend backend;
+        private final boolean hot;
+        private final List<Map<String, Object>> samples;
+        private final long cacheSize;
+        private final long cacheTtl;
+
+        ScriptSource(Node n) {
+            function = n.hasLabel(JS_FUNCTION);
+            mode = n.getProperty(Mode, org.neo4j.procedure.Mode.WRITE.name()).toString();
+            inputs = (String[]) n.getProperty(Inputs, new String[0]);
+            outputs = (String[]) n.getProperty(Outputs, new String[0]);
+            timeout = timeout(n);
+            profile = profile(n);
+            backend = backend(n);
+            hot = Boolean.TRUE.equals(n.getProperty(Hot, false));
+            Object declared = n.getProperty(WarmUpSamples, null);
+            samples = ScriptWarmUp.parseSamples(declared == null ? null : declared.toString());
+            cacheSize = ((Number) n.getProperty(CacheSize, 0L)).longValue();
+            cacheTtl = ((Number) n.getProperty(CacheTtl, 0L)).longValue();
+            publicName = n.getProperty(PublicName).toString();
+            script = n.getProperty(Script).toString();
+            name = n.getProperty(FunctionName).toString();
+            Object temp = n.getProperty(CheckSum, null);
+            checkSum = temp == null ? null : temp.toString();
+            temp = n.getProperty(LoadOnStartup, null);
+            loadOnStartup = !(temp instanceof Boolean) || (Boolean) temp;
         }
     }
 
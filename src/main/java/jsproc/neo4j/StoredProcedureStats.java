@@ -0,0 +1,142 @@
+package jsproc.neo4j;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class StoredProcedureStats implements StoredProcedureStatsMXBean {
+
+    private final String dbName;
+
+    public StoredProcedureStats(String dbName) {
+        this.dbName = dbName;
+    }
+
+    public static ObjectName objectName(String dbName) throws JMException {
+        return new ObjectName("jsproc.neo4j:type=StoredProcedureStats,database=" + ObjectName.quote(dbName));
+    }
+
+    public static void register(String dbName) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = objectName(dbName);
+        if (!server.isRegistered(name)) {
+            server.registerMBean(new StoredProcedureStats(dbName), name);
+        }
+    }
+
+    public static void unregister(String dbName) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = objectName(dbName);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+    }
+
+    private Map<String, ProcedureMetrics> metrics() {
+        return StoredProcedureEngine.getStoredProcedureEngine(null).getMetrics(dbName);
+    }
+
+    private LoadProgress progress() {
+        return StoredProcedureEngine.getStoredProcedureEngine(null).getLoadProgress(dbName);
+    }
+
+    @Override
+    public boolean isReady() {
+        LoadProgress progress = progress();
+        return progress != null && progress.isReady();
+    }
+
+    @Override
+    public int getScripts() {
+        LoadProgress progress = progress();
+        return progress == null ? 0 : progress.getTotal();
+    }
+
+    @Override
+    public int getDeferredScripts() {
+        LoadProgress progress = progress();
+        return progress == null ? 0 : progress.getDeferred();
+    }
+
+    @Override
+    public int getFailedScripts() {
+        LoadProgress progress = progress();
+        return progress == null ? 0 : progress.getFailed();
+    }
+
+    @Override
+    public int getWarmedUpScripts() {
+        LoadProgress progress = progress();
+        return progress == null ? 0 : progress.getWarmedUp();
+    }
+
+    @Override
+    public long getLoadMillis() {
+        LoadProgress progress = progress();
+        return progress == null ? -1 : progress.getLoadMillis();
+    }
+
+    private ScriptRegistry registry() {
+        return StoredProcedureEngine.getStoredProcedureEngine(null).getRegistry(dbName);
+    }
+
+    @Override
+    public int getResidentScripts() {
+        ScriptRegistry registry = registry();
+        return registry == null ? 0 : registry.getResident();
+    }
+
+    @Override
+    public int getMaxResidentScripts() {
+        ScriptRegistry registry = registry();
+        return registry == null ? 0 : registry.getMaxResident();
+    }
+
+    @Override
+    public long getScriptHits() {
+        ScriptRegistry registry = registry();
+        return registry == null ? 0 : registry.getHits();
+    }
+
+    @Override
+    public long getScriptMisses() {
+        ScriptRegistry registry = registry();
+        return registry == null ? 0 : registry.getMisses();
+    }
+
+    @Override
+    public long getScriptEvictions() {
+        ScriptRegistry registry = registry();
+        return registry == null ? 0 : registry.getEvictions();
+    }
+
+    @Override
+    public long getInvocations() {
+        return metrics().values().stream().mapToLong(ProcedureMetrics::getInvocations).sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return metrics().values().stream().mapToLong(ProcedureMetrics::getErrors).sum();
+    }
+
+    @Override
+    public long getAborts() {
+        return metrics().values().stream().mapToLong(ProcedureMetrics::getAborts).sum();
+    }
+
+    @Override
+    public long getCompiles() {
+        return metrics().values().stream().mapToLong(ProcedureMetrics::getCompiles).sum();
+    }
+
+    @Override
+    public Map<String, Map<String, Long>> getProcedures() {
+        Map<String, Map<String, Long>> procedures = new TreeMap<>();
+        metrics().forEach((publicName, procedureMetrics) -> procedures.put(publicName, procedureMetrics.toMap()));
+        return procedures;
+    }
+}
@@ -0,0 +1,41 @@
+package jsproc.neo4j;
+
+import java.util.Map;
+
+/**
+ * JMX view of the stored procedure metrics of one database. Latencies are in microseconds.
+ */
+public interface StoredProcedureStatsMXBean {
+
+    boolean isReady();
+
+    int getScripts();
+
+    int getDeferredScripts();
+
+    int getFailedScripts();
+
+    int getWarmedUpScripts();
+
+    long getLoadMillis();
+
+    int getResidentScripts();
+
+    int getMaxResidentScripts();
+
+    long getScriptHits();
+
+    long getScriptMisses();
+
+    long getScriptEvictions();
+
+    long getInvocations();
+
+    long getErrors();
+
+    long getAborts();
+
+    long getCompiles();
+
+    Map<String, Map<String, Long>> getProcedures();
+}
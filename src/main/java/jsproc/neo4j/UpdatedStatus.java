@@ -6,96 +6,90 @@ import org.neo4j.graphdb.ResourceIterator;
 import org.neo4j.graphdb.Transaction;
 
 import java.time.ZonedDateTime;
-import java.util.HashMap;
 import java.util.Map;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the script version of a database. The version is bumped by {@link ScriptChangeListener}
+ * after a transaction touching the script nodes commits, and by {@link #refresh(GraphDatabaseService)}
+ * when the timestamp on the JS_ProcedureLock node moved without a local commit (e.g. on another cluster member).
+ * Reading the version on the invoke path is a single volatile read.
+ */
 public class UpdatedStatus {
 
-    private static Map<String, UpdatedStatus> statusMap = new HashMap<>() ;;
-
-    private ZonedDateTime lastUpdated ;
-    private ZonedDateTime lastRead ;
-    private long interval = 3600 ;
-    private long nodeId = -1 ;
+    private static Map<String, UpdatedStatus> statusMap = new ConcurrentHashMap<>() ;
 
-    public static synchronized UpdatedStatus getInstance(GraphDatabaseService db) {
-        String name = db.databaseName() ;
+    private final AtomicLong version = new AtomicLong() ;
+    private volatile ZonedDateTime lastUpdated ;
+    private volatile ZonedDateTime lastRead ;
+    private volatile long interval = 3600 ;
 
-        UpdatedStatus instance = statusMap.get(name);
+    public static UpdatedStatus getInstance(GraphDatabaseService db) {
+        return statusMap.computeIfAbsent(db.databaseName(), name -> new UpdatedStatus()) ;
+    }
 
-        if( instance == null ) {
-            instance = new UpdatedStatus() ;
-            statusMap.put(name, instance) ;
-        }
-        instance.updateStatus(db);
-        return instance ;
+    private UpdatedStatus() {
     }
 
-    private void updateStatus(GraphDatabaseService db) {
-        if( lastUpdated == null || lastRead == null || ( ZonedDateTime.now().toEpochSecond() - lastRead.toEpochSecond() ) > interval ) {
-            refreshUpdateStatus(db) ;
-        }
+    public long getVersion() {
+        return version.get();
     }
 
-    private UpdatedStatus() {
+    public void scriptsChanged() {
+        version.incrementAndGet();
     }
 
     public ZonedDateTime getLastUpdated() {
         return lastUpdated;
     }
 
-    public void setLastUpdated(ZonedDateTime lastUpdated) {
-        this.lastUpdated = lastUpdated;
-    }
-
     public ZonedDateTime getLastRead() {
         return lastRead;
     }
 
-    public void setLastRead(ZonedDateTime lastRead) {
-        this.lastRead = lastRead;
-    }
-
     public long getInterval() {
         return interval;
     }
 
-    public void setInterval(long interval) {
-        this.interval = interval;
-    }
-
-    private void refreshUpdateStatus(GraphDatabaseService db) {
-        String dbName = db.databaseName();
-        Transaction tx = db.beginTx() ;
-        Node node = null ;
-
-        if( nodeId == -1 ) {
-            ResourceIterator<Node> nodes = tx.findNodes(StoredProcedureEngine.JS_ProcedureLock) ;
-            if( nodes.hasNext() ) {
-                node = nodes.next();
+    /**
+     * Reads the JS_ProcedureLock node in its own transaction and bumps the version if its timestamp changed since the last read.
+     */
+    public void refresh(GraphDatabaseService db) {
+        try (Transaction tx = db.beginTx()) {
+            Node node = findLockNode(tx) ;
+            if( node == null ) {
+                lastRead = ZonedDateTime.now();
+                return;
+            }
+            Object o = node.getProperty(StoredProcedureEngine.LoadInterval, null ) ;
+            if( o != null ) {
+                interval = ((Number)o).longValue() ;
             } else {
-                node = tx.createNode(StoredProcedureEngine.JS_ProcedureLock) ;
-                node.setProperty(StoredProcedureEngine.LastUpdatedime, ZonedDateTime.now());
+                interval = 3600; // Refresh every hour
             }
-            nodeId = node.getId() ;
-        } else {
-            node = tx.getNodeById(nodeId) ;
-        }
-        Object o = node.getProperty(StoredProcedureEngine.LoadInterval, null ) ;
-        if( o != null ) {
-            interval = ((Integer)o).intValue() ;
-        } else {
-            interval = 3600; // Refresh every hour
+            ZonedDateTime updated = (ZonedDateTime) node.getProperty(StoredProcedureEngine.LastUpdatedime, null ) ;
+            if( lastUpdated != null && updated != null && !updated.equals(lastUpdated) ) {
+                scriptsChanged();
+            }
+            lastUpdated = updated;
+            lastRead = ZonedDateTime.now();
+            tx.commit();
         }
-        o = node.getProperty(StoredProcedureEngine.LastUpdatedime, null ) ;
-        lastUpdated = (ZonedDateTime)o;
-        lastRead = ZonedDateTime.now();
-
-        tx.commit();
     }
 
     public void updateTimestamp(Transaction tx, ZonedDateTime date) {
-        Node node = tx.getNodeById(nodeId) ;
+        Node node = findLockNode(tx) ;
+        if( node == null ) {
+            node = tx.createNode(StoredProcedureEngine.JS_ProcedureLock) ;
+        }
         node.setProperty(StoredProcedureEngine.LastUpdatedime, date);
+        lastUpdated = date;
+    }
+
+    private static Node findLockNode(Transaction tx) {
+        try (ResourceIterator<Node> nodes = tx.findNodes(StoredProcedureEngine.JS_ProcedureLock)) {
+            return nodes.hasNext() ? nodes.next() : null;
+        }
     }
 }
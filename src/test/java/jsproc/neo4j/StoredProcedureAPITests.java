@@ -1,15 +1,34 @@
 package jsproc.neo4j;
 
 import org.junit.jupiter.api.*;
+import org.neo4j.configuration.Config;
+import org.neo4j.configuration.GraphDatabaseSettings;
 import org.neo4j.driver.Driver;
 import org.neo4j.driver.GraphDatabase;
+import org.neo4j.driver.Record;
 import org.neo4j.driver.Result;
 import org.neo4j.driver.Session;
+import org.neo4j.driver.SessionConfig;
+import org.neo4j.driver.Transaction;
+import org.neo4j.driver.Value;
 import org.neo4j.harness.Neo4j;
 import org.neo4j.harness.Neo4jBuilders;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
 
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 @TestMethodOrder(MethodOrderer.OrderAnnotation.class)
@@ -18,6 +37,8 @@ public class StoredProcedureAPITests {
     private static final String REGISTER_CALL = "call js.procedure.register($script, $name, null)";
     private static final String INVOKE_CALL = "call js.procedure.invoke($name, $params)";
     private static final String UNREGISTER_CALL = "call js.procedure.unregister($name)";
+    private static final String STREAM_CALL = "call js.procedure.stream($name, $params)";
+    private static final String BATCH_CALL = "call js.procedure.invokeBatch($name, $batch, $config)";
 
     private Driver driver;
     private Neo4j embeddedDatabaseServer;
@@ -26,6 +47,9 @@ public class StoredProcedureAPITests {
     void initializeNeo4j() throws InterruptedException {
         this.embeddedDatabaseServer = Neo4jBuilders.newInProcessBuilder()
                 .withProcedure(StoredProcedureAPI.class)
+                .withConfig(JSProcedureSettings.max_resident_scripts, 4)
+                .withConfig(JSProcedureSettings.engine_pool_size, 4)
+                .withConfig(JSProcedureSettings.engine_wait_timeout, Duration.ofSeconds(5))
                 .withDisabledServer()
                 .build();
         this.driver = GraphDatabase.driver(embeddedDatabaseServer.boltURI());
@@ -123,6 +147,10 @@ public class StoredProcedureAPITests {
         params.put("script", script);
         params.put("name", "test");
         test(REGISTER_CALL, params, "message", "Only predefined Java.type can be used in JS function.",  "Java.type cannot be used in the function");
+
+        params.put("script", "function graph(params){ return 1; }");
+        params.put("name", "graph");
+        test(REGISTER_CALL, params, "message", "The function name graph is reserved for the helpers.",  "Helpers cannot be replaced by a script");
     }
 
     @Test
@@ -284,4 +312,718 @@ public class StoredProcedureAPITests {
         String expected = "Failed to invoke procedure `js.procedure.invoke`: Caused by: java.lang.RuntimeException: ReferenceError: Cannot invoke unregistered procedure in <eval> at line number 1 at column number 27";
         test(INVOKE_CALL, params, "map", expected, "Should return RuntimeException");
     }
-}
\ No newline at end of file
+
+    @Test
+    @Order(10)
+    public void testStreamIteratorProcedure() {
+        String script = "" +
+                "function range(params){" +
+                "   var i = 0;" +
+                "   return { next: function() { return i < params['count'] ? { value: i++, done: false } : { done: true }; } };" +
+                "}";
+        Map<String, Object> params = new HashMap<>();
+        params.put("script", script);
+        params.put("name", "range");
+        test(REGISTER_CALL, params, "message", "Success",  "Registration should be done");
+
+        Map<String, Object> procParams = new HashMap<>();
+        procParams.put("count", 5);
+        params = new HashMap<>();
+        params.put("name", "range");
+        params.put("params", procParams);
+        try(Session session = driver.session()) {
+            List<Record> rows = session.run(STREAM_CALL, params).list();
+            Assertions.assertEquals(5, rows.size(), "Every element of the iterator must be a row");
+            Assertions.assertEquals(4L, ((Number) rows.get(4).get("map").asMap().get("result")).longValue(), "Rows must keep the iterator order");
+        }
+    }
+
+    @Test
+    @Order(11)
+    public void testInvokeBatchProcedure() {
+        String script = "" +
+                "function double(params){" +
+                "   if (params['batch']) { return params['batch'].stream().map(function(p) { return p['x'] * 2; }).iterator(); }" +
+                "   return params['x'] * 2;" +
+                "}";
+        Map<String, Object> params = new HashMap<>();
+        params.put("script", script);
+        params.put("name", "double");
+        test(REGISTER_CALL, params, "message", "Success",  "Registration should be done");
+
+        params = new HashMap<>();
+        params.put("name", "double");
+        params.put("batch", List.of(Map.of("x", 1), Map.of("x", 2), Map.of("x", 3)));
+        for (boolean vectorized : new boolean[]{false, true}) {
+            params.put("config", Map.of("vectorized", vectorized));
+            try(Session session = driver.session()) {
+                List<Record> rows = session.run(BATCH_CALL, params).list();
+                Assertions.assertEquals(3, rows.size(), "There must be one row per input");
+                Assertions.assertEquals(6L, ((Number) rows.get(2).get("map").asMap().get("result")).longValue(), "Rows must keep the input order");
+            }
+        }
+    }
+
+    @Test
+    @Order(12)
+    public void testInvokePicksUpCommittedScriptChange() {
+        try(Session session = driver.session()) {
+            session.run("MATCH (p:JS_StoredProcedure {publicName: 'double'}) " +
+                    "SET p.script = 'function double(params){ return params[\\'x\\'] * 3; }', p.checkSum = 'TRIPLE'").consume();
+        }
+        Map<String, Object> params = new HashMap<>();
+        params.put("name", "double");
+        params.put("params", Map.of("x", 2));
+        try(Session session = driver.session()) {
+            Object result = session.run(INVOKE_CALL, params).single().get("map").asMap().get("result");
+            Assertions.assertEquals(6L, ((Number) result).longValue(), "Script changed in another transaction must be used after commit");
+        }
+    }
+
+    @Test
+    @Order(13)
+    public void testProcedureStats() throws Exception {
+        try(Session session = driver.session()) {
+            Record row = session.run("call js.procedure.stats() yield publicName, invocations, execution where publicName = 'double' return *").single();
+            Assertions.assertTrue(row.get("invocations").asLong() >= 5, "Every batch element and invoke must be counted");
+            Assertions.assertTrue(row.get("execution").asMap().containsKey("p99"), "Execution latencies must be reported");
+        }
+        Object procedures = ManagementFactory.getPlatformMBeanServer().getAttribute(StoredProcedureStats.objectName("neo4j"), "Procedures");
+        Assertions.assertTrue(procedures instanceof TabularData && !((TabularData) procedures).isEmpty(), "Stats must be exposed through JMX");
+    }
+
+    @Test
+    @Order(14)
+    public void testEvictedProceduresReloadOnInvoke() throws Exception {
+        for (int i = 0; i < 6; i++) {
+            Map<String, Object> params = new HashMap<>();
+            params.put("script", "function plus" + i + "(params){ return params['x'] + " + i + "; }");
+            params.put("name", "plus" + i);
+            test(REGISTER_CALL, params, "message", "Success",  "Registration should be done");
+        }
+        for (int i = 0; i < 6; i++) {
+            Map<String, Object> params = new HashMap<>();
+            params.put("name", "plus" + i);
+            params.put("params", Map.of("x", 10));
+            try(Session session = driver.session()) {
+                Object result = session.run(INVOKE_CALL, params).single().get("map").asMap().get("result");
+                Assertions.assertEquals(10L + i, ((Number) result).longValue(), "Evicted procedures must be reloaded from their node");
+            }
+        }
+        Object evictions = ManagementFactory.getPlatformMBeanServer().getAttribute(StoredProcedureStats.objectName("neo4j"), "ScriptEvictions");
+        Assertions.assertTrue((Long) evictions > 0, "Scripts beyond the cap must be evicted");
+        Object resident = ManagementFactory.getPlatformMBeanServer().getAttribute(StoredProcedureStats.objectName("neo4j"), "ResidentScripts");
+        Assertions.assertTrue((Integer) resident <= 4, "No more scripts than the cap may stay resident");
+
+        try(Session session = driver.session()) {
+            for (int i = 0; i < 10; i++) {
+                Assertions.assertEquals("Success", session.run(REGISTER_CALL, Map.of("name", "plus0",
+                        "script", "function plus0(params){ return params['x'] + " + (100 + i) + "; }")).single().get("message").asString());
+                Assertions.assertEquals(110L + i, session.run(INVOKE_CALL, Map.of("name", "plus0", "params", Map.of("x", 10)))
+                        .single().get("map").get("result").asNumber().longValue());
+            }
+        }
+        for (int i = 0; i < 50 && StoredProcedureEngine.compiledScriptCount() > 4; i++) {
+            Thread.sleep(100);
+        }
+        Assertions.assertTrue(StoredProcedureEngine.compiledScriptCount() <= 4, "Replaced and evicted scripts must drop their compiled scripts");
+    }
+
+    @Test
+    @Order(15)
+    public void testRegisteredFunctionIsCypherUserFunction() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("script", "function square(params){ return params['x'] * params['x']; }");
+        params.put("name", "square");
+        test("call js.function.register($script, $name, null)", params, "message", "Success",  "Registration should be done");
+
+        try(Session session = driver.session()) {
+            List<Record> rows = session.run("UNWIND [2, 3] AS x WITH x WHERE js.fn.square({x: x}) > 5 RETURN js.fn.square({x: x}) AS squared").list();
+            Assertions.assertEquals(1, rows.size(), "Function must be usable in WHERE clauses");
+            Assertions.assertEquals(9L, ((Number) rows.get(0).get("squared").asObject()).longValue(), "Function must be usable in projections");
+
+            params = new HashMap<>();
+            params.put("name", "square");
+            params.put("params", Map.of("x", 4));
+            Object result = session.run("call js.function.invoke($name, $params)", params).single().get("map").asMap().get("result");
+            Assertions.assertEquals(16L, ((Number) result).longValue(), "Function must still be callable through js.function.invoke");
+        }
+    }
+
+    @Test
+    @Order(16)
+    public void testRegisteredProcedureHasTypedSignature() {
+        String script = "" +
+                "function squares(params){" +
+                "   var rows = [];" +
+                "   for (var i = params['from']; i <= params['to']; i++) { rows.push({ value: i, square: i * i }); }" +
+                "   return rows;" +
+                "}";
+        Map<String, Object> params = new HashMap<>();
+        params.put("script", script);
+        params.put("name", "squares");
+        params.put("config", Map.of("mode", "READ", "inputs", List.of("from :: INTEGER", "to :: INTEGER"),
+                "outputs", List.of("value :: INTEGER", "square :: INTEGER")));
+        test("call js.procedure.register($script, $name, $config)", params, "message", "Success",  "Registration should be done");
+
+        try(Session session = driver.session()) {
+            List<Record> rows = session.run("CALL js.proc.squares(1, 3) YIELD value, square WHERE square > 1 RETURN value, square").list();
+            Assertions.assertEquals(2, rows.size(), "Every returned element must be a row that can be filtered");
+            Assertions.assertEquals(3L, rows.get(1).get("value").asLong(), "Columns must keep the declared integer type");
+            Assertions.assertEquals(9L, rows.get(1).get("square").asLong(), "Columns must keep the declared integer type");
+        }
+    }
+
+    @Test
+    @Order(17)
+    public void testStructuredResultConversion() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("script", "function structured(params){ return { ids: [1, 2, 3], scores: [0.5, 1.5], nested: { tags: ['a', 'b'] } }; }");
+        params.put("name", "structured");
+        test(REGISTER_CALL, params, "message", "Success",  "Registration should be done");
+
+        params = new HashMap<>();
+        params.put("name", "structured");
+        params.put("params", Map.of());
+        try(Session session = driver.session()) {
+            Map<String, Object> result = session.run(INVOKE_CALL, params).single().get("map").get("result").asMap();
+            Assertions.assertEquals(List.of(1L, 2L, 3L), result.get("ids"), "Integer arrays must become integer lists");
+            Assertions.assertEquals(List.of(0.5, 1.5), result.get("scores"), "Number arrays must become float lists");
+            Assertions.assertEquals(Map.of("tags", List.of("a", "b")), result.get("nested"), "Nested objects must become maps");
+        }
+    }
+
+    @Test
+    @Order(18)
+    public void testCypherHelper() {
+        String script = "" +
+                "function tagAll(params){" +
+                "   var batch = [];" +
+                "   for each (var n in params['names']) { batch.push({ name: n }); }" +
+                "   var summary = cypher.executeMany('MERGE (:Tag {name: $name})', batch);" +
+                "   var names = [];" +
+                "   for each (var row in cypher.execute('MATCH (t:Tag) WHERE t.name IN $names RETURN t.name AS name ORDER BY name', { names: params['names'] })) { names.push(row.name); }" +
+                "   return { created: summary.nodesCreated, names: names };" +
+                "}";
+        Map<String, Object> params = new HashMap<>();
+        params.put("script", script);
+        params.put("name", "tagAll");
+        test(REGISTER_CALL, params, "message", "Success",  "Registration should be done");
+
+        params = new HashMap<>();
+        params.put("name", "tagAll");
+        params.put("params", Map.of("names", List.of("b", "a")));
+        try(Session session = driver.session()) {
+            Map<String, Object> result = session.run(INVOKE_CALL, params).single().get("map").get("result").asMap();
+            Assertions.assertEquals(2L, ((Number) result.get("created")).longValue(), "executeMany must run the query per parameter map");
+            Assertions.assertEquals(List.of("a", "b"), result.get("names"), "Rows must be iterable from JS");
+
+            Record stats = session.run("call js.procedure.stats() yield publicName, query, queryRows where publicName = 'tagAll' return *").single();
+            Assertions.assertEquals(3L, stats.get("query").asMap().get("count"), "Queries must be counted in the stats");
+        }
+
+        params = new HashMap<>();
+        params.put("script", "function inlined(params){ return cypher.single('RETURN \\'' + params.x + '\\' AS x', {}).x; }");
+        params.put("name", "inlined");
+        test(REGISTER_CALL, params, "message", "Success",  "Registration should be done");
+        try(Session session = driver.session()) {
+            Assertions.assertEquals("a", session.run(INVOKE_CALL, Map.of("name", "inlined", "params", Map.of("x", "a")))
+                    .single().get("map").get("result").asString(), "Constant string literals must be allowed");
+            Assertions.assertEquals("a", session.run(INVOKE_CALL, Map.of("name", "inlined", "params", Map.of("x", "a")))
+                    .single().get("map").get("result").asString(), "Constant string literals must be allowed");
+            Assertions.assertEquals("b", session.run(INVOKE_CALL, Map.of("name", "inlined", "params", Map.of("x", "b")))
+                    .single().get("map").get("result").asString(), "Constants of different branches must be allowed");
+            Assertions.assertEquals(0L, session.run("call js.procedure.stats() yield publicName, unpreparedQueries where publicName = 'inlined' return *")
+                    .single().get("unpreparedQueries").asLong());
+            for (int i = 0; i < PreparedQueries.MAX_VARIANTS; i++) {
+                session.run(INVOKE_CALL, Map.of("name", "inlined", "params", Map.of("x", i))).consume();
+            }
+            Assertions.assertTrue(session.run("call js.procedure.stats() yield publicName, unpreparedQueries where publicName = 'inlined' return *")
+                    .single().get("unpreparedQueries").asLong() > 0, "Queries built from values must be counted");
+        }
+        params = new HashMap<>();
+        params.put("script", "function inlined(params){ return cypher.single('RETURN \\'' + params.x + '\\' AS x', {})['x']; }");
+        params.put("name", "inlined");
+        test(REGISTER_CALL, params, "message", "Success",  "Registration should be done");
+        try(Session session = driver.session()) {
+            Assertions.assertEquals("b", session.run(INVOKE_CALL, Map.of("name", "inlined", "params", Map.of("x", "b")))
+                    .single().get("map").get("result").asString(), "A new script must start with new queries");
+        }
+    }
+
+    @Test
+    @Order(19)
+    public void testBulkGraphWrites() {
+        String script = "" +
+                "function ingest(params){" +
+                "   var ids = graph.createNodes('Bulk', [{ name: 'a' }, { name: 'b' }, { name: 'c' }]);" +
+                "   graph.mergeRelationships('NEXT', [[ids[0], ids[1]], [ids[1], ids[2]]], { weight: 1 });" +
+                "   graph.mergeRelationships('NEXT', [[params['txn'].getNodeById(ids[0]), ids[1]]], { weight: 2 });" +
+                "   graph.setProperties(ids, 'rank', [1, 2, 3]);" +
+                "   return ids.length;" +
+                "}";
+        Map<String, Object> params = new HashMap<>();
+        params.put("script", script);
+        params.put("name", "ingest");
+        test(REGISTER_CALL, params, "message", "Success",  "Registration should be done");
+
+        params = new HashMap<>();
+        params.put("name", "ingest");
+        params.put("params", Map.of());
+        try(Session session = driver.session()) {
+            Object created = session.run(INVOKE_CALL, params).single().get("map").asMap().get("result");
+            Assertions.assertEquals(3L, ((Number) created).longValue(), "All nodes must be created");
+            Record row = session.run("MATCH (a:Bulk)-[r:NEXT]->(b:Bulk) RETURN count(r) AS rels, sum(r.weight) AS weight, sum(b.rank) AS ranks").single();
+            Assertions.assertEquals(2L, row.get("rels").asLong(), "Existing relationships must be merged");
+            Assertions.assertEquals(3L, row.get("weight").asLong(), "Merged relationships must get the new properties");
+            Assertions.assertEquals(5L, row.get("ranks").asLong(), "Properties must be set per node");
+        }
+    }
+
+    @Test
+    @Order(20)
+    public void testIterate() {
+        String script = "" +
+                "function markItems(params){" +
+                "   for each (var row in params['batch']) {" +
+                "       if (row['i'] == 13) { throw new Error('unlucky'); }" +
+                "       row['n'].setProperty('done', true);" +
+                "   }" +
+                "}";
+        Map<String, Object> params = new HashMap<>();
+        params.put("script", script);
+        params.put("name", "markItems");
+        test(REGISTER_CALL, params, "message", "Success",  "Registration should be done");
+
+        try(Session session = driver.session()) {
+            session.run("UNWIND range(0, 24) AS i CREATE (:Item {i: i})").consume();
+            Record result = session.run("call js.procedure.iterate('markItems', 'MATCH (n:Item) RETURN n, n.i AS i ORDER BY i', " +
+                    "{batchSize: 10, parallel: true, concurrency: 2, retries: 1})").single();
+            Assertions.assertEquals(3L, result.get("batches").asLong(), "Rows must be split into batches");
+            Assertions.assertEquals(25L, result.get("total").asLong(), "All source rows must be read");
+            Assertions.assertEquals(15L, result.get("committed").asLong(), "Batches must commit on their own");
+            Assertions.assertEquals(1L, result.get("failedBatches").asLong(), "The failing batch must be reported");
+            Assertions.assertEquals(1L, result.get("retries").asLong(), "The failing batch must be retried");
+            Assertions.assertEquals(1L, result.get("failures").asList().size(), "The failing batch must be detailed");
+            Assertions.assertEquals(15L, session.run("MATCH (n:Item {done: true}) RETURN count(n) AS c").single().get("c").asLong(),
+                    "The failed batch must be rolled back");
+        }
+    }
+
+    @Test
+    @Order(21)
+    public void testRunawayScriptsAreAborted() {
+        String register = "call js.procedure.register($script, $name, {timeout: 200})";
+        Map<String, Object> params = new HashMap<>();
+        params.put("script", "function spin(params){ var i = 0; while(true) { i++; } }");
+        params.put("name", "spin");
+        test(register, params, "message", "Success",  "Registration should be done");
+        params = new HashMap<>();
+        params.put("script", "function stubborn(params){ while(true) { try { for(;;) {} } catch(e) {} } }");
+        params.put("name", "stubborn");
+        test(register, params, "message", "Success",  "Registration should be done");
+
+        try(Session session = driver.session()) {
+            for (String name : List.of("spin", "stubborn")) {
+                long start = System.currentTimeMillis();
+                Assertions.assertThrows(Exception.class, () -> session.run(INVOKE_CALL, Map.of("name", name, "params", Map.of())).consume(),
+                        "Runaway scripts must be aborted");
+                Assertions.assertTrue(System.currentTimeMillis() - start < 10000, "Runaway scripts must be aborted promptly");
+            }
+            Record stats = session.run("call js.procedure.stats() yield publicName, aborts where publicName = 'spin' return *").single();
+            Assertions.assertEquals(1L, stats.get("aborts").asLong(), "Aborted invocations must be counted");
+        }
+
+        // Rows of a stream are pulled after the procedure returned, they are still bound by its deadline.
+        params = new HashMap<>();
+        params.put("script", "function spinningRows(params){ var rows = 0; return function() { if (rows++ < 2) { return rows; } while(true) {} }; }");
+        params.put("name", "spinningRows");
+        test(register, params, "message", "Success",  "Registration should be done");
+        params = new HashMap<>();
+        params.put("script", "function endlessRows(params){ return function() { return 1; }; }");
+        params.put("name", "endlessRows");
+        test(register, params, "message", "Success",  "Registration should be done");
+
+        try(Session session = driver.session()) {
+            for (String name : List.of("spinningRows", "endlessRows")) {
+                long start = System.currentTimeMillis();
+                Assertions.assertThrows(Exception.class, () -> session.run(STREAM_CALL, Map.of("name", name, "params", Map.of())).consume(),
+                        "Runaway streams must be aborted");
+                Assertions.assertTrue(System.currentTimeMillis() - start < 10000, "Runaway streams must be aborted promptly");
+            }
+            Record stats = session.run("call js.procedure.stats() yield publicName, aborts where publicName = 'spinningRows' return *").single();
+            Assertions.assertEquals(1L, stats.get("aborts").asLong(), "Aborted pulls must be counted");
+        }
+
+        params = new HashMap<>();
+        params.put("name", "range");
+        params.put("params", Map.of("count", 3));
+        try(Session session = driver.session()) {
+            Assertions.assertEquals(3, session.run(STREAM_CALL, params).list().size(), "Engines must stay usable after an abort");
+        }
+    }
+
+    @Test
+    @Order(22)
+    public void testRegisterAll() {
+        List<Map<String, Object>> scripts = List.of(
+                Map.of("script", "function bulkOne(params){ return 1; }", "publicName", "bulkOne"),
+                Map.of("script", "function bulkTwo(params){ return params['x'] * 2; }", "publicName", "bulkTwo",
+                        "config", Map.of("mode", "READ", "inputs", List.of("x :: INTEGER"), "outputs", List.of("value :: INTEGER"))),
+                Map.of("script", "function broken(params){ return ", "publicName", "broken"),
+                Map.of("script", "function bulkOne(params){ return 2; }", "publicName", "bulkOne"));
+        String registerAll = "call js.procedure.registerAll($scripts) yield publicName, message return publicName, message";
+        try(Session session = driver.session()) {
+            List<String> messages = session.run(registerAll, Map.of("scripts", scripts)).list(row -> row.get("message").asString());
+            Assertions.assertEquals("Success", messages.get(0), "New scripts must be registered");
+            Assertions.assertEquals("Success", messages.get(1), "New scripts must be registered");
+            Assertions.assertNotEquals("Success", messages.get(2), "Invalid scripts must be reported");
+            Assertions.assertNotEquals("Success", messages.get(3), "Duplicate public names must be reported");
+
+            Assertions.assertEquals(1L, session.run(INVOKE_CALL, Map.of("name", "bulkOne", "params", Map.of())).single().get("map").get("result").asLong(),
+                    "Registered scripts must be invokable after commit");
+            Assertions.assertEquals(42L, session.run("call js.proc.bulkTwo(21) yield value return value").single().get("value").asLong(),
+                    "Typed procedures must be callable after commit");
+
+            messages = session.run(registerAll, Map.of("scripts", scripts.subList(0, 2))).list(row -> row.get("message").asString());
+            Assertions.assertEquals(List.of("No Change", "No Change"), messages, "Unchanged scripts must be skipped");
+        }
+    }
+
+    @Test
+    @Order(23)
+    public void testCodeCache() throws Exception {
+        // Nashorn only keeps scripts of at least 1000 characters.
+        StringBuilder script = new StringBuilder("function longScript(params){ var sum = 0;\n");
+        for (int i = 0; i < 50; i++) {
+            script.append("    sum = sum + params['value'] * ").append(i).append(";\n");
+        }
+        script.append("    return sum; }");
+        Map<String, Object> params = new HashMap<>();
+        params.put("script", script.toString());
+        params.put("name", "longScript");
+        test(REGISTER_CALL, params, "message", "Success", "Long scripts must be registered");
+        try(Session session = driver.session()) {
+            Assertions.assertEquals(1225L, session.run(INVOKE_CALL, Map.of("name", "longScript", "params", Map.of("value", 1))).single().get("map").get("result").asLong(),
+                    "Long scripts must be invokable");
+        }
+
+        Config config = ((GraphDatabaseAPI) embeddedDatabaseServer.defaultDatabaseService()).getDependencyResolver().resolveDependency(Config.class);
+        Path codeCache = config.get(GraphDatabaseSettings.data_directory).resolve("js-procedures").resolve("code-cache");
+        try (Stream<Path> entries = Files.walk(codeCache)) {
+            Assertions.assertTrue(entries.anyMatch(Files::isRegularFile), "Compiled scripts must be kept in the code cache");
+        }
+    }
+
+    @Test
+    @Order(24)
+    public void testProfilesAndClassFilter() {
+        String register = "call js.procedure.register($script, $name, $config)";
+        try(Session session = driver.session()) {
+            Assertions.assertEquals("Success", session.run(register, Map.of("name", "hotLoop", "config", Map.of("profile", "throughput"),
+                    "script", "function hotLoop(params){ var s = 0; for (var i = 0; i < 1000; i++) { s += i; } return s; }")).single().get("message").asString());
+            Assertions.assertEquals(499500L, session.run(INVOKE_CALL, Map.of("name", "hotLoop", "params", Map.of())).single().get("map").get("result").asLong(),
+                    "Scripts must run in their profile");
+            Assertions.assertEquals("Unknown profile 'fast', expected one of default, throughput, eager, strict", session.run(register, Map.of("name", "hotLoop",
+                    "config", Map.of("profile", "fast"), "script", "function hotLoop(params){ return 1; }")).single().get("message").asString());
+
+            Assertions.assertEquals("Success", session.run(register, Map.of("name", "strictOne", "config", Map.of("profile", "strict"),
+                    "script", "function strictOne(params){ undeclared = 1; return undeclared; }")).single().get("message").asString());
+            Assertions.assertThrows(Exception.class, () -> session.run(INVOKE_CALL, Map.of("name", "strictOne", "params", Map.of())).consume(),
+                    "Strict scripts must not create globals");
+
+            Assertions.assertEquals("Success", session.run(register, Map.of("name", "listSize", "config", Map.of(),
+                    "script", "function listSize(params){ var List = Java.type('java.util.ArrayList'); var list = new List(); list.add(1); return list.size(); }")).single().get("message").asString());
+            Assertions.assertEquals(1L, session.run(INVOKE_CALL, Map.of("name", "listSize", "params", Map.of())).single().get("map").get("result").asLong(),
+                    "Required classes must be exposed");
+            Assertions.assertEquals("Success", session.run(register, Map.of("name", "sneaky", "config", Map.of(),
+                    "script", "function sneaky(params){ return Java['type']('java.lang.' + 'System').getProperty('java.version'); }")).single().get("message").asString());
+            Assertions.assertThrows(Exception.class, () -> session.run(INVOKE_CALL, Map.of("name", "sneaky", "params", Map.of())).consume(),
+                    "Classes that aren't required classes must be hidden");
+        }
+
+        Assertions.assertFalse(ScriptClassFilter.FILTER.exposeToScripts("java.util.ArrayList"), "Lookups outside of a database must be refused");
+        String previous = ScriptClassFilter.FILTER.enter("neo4j");
+        try {
+            Assertions.assertTrue(ScriptClassFilter.FILTER.exposeToScripts("java.util.ArrayList"));
+            ScriptClassFilter.FILTER.enter("other");
+            Assertions.assertFalse(ScriptClassFilter.FILTER.exposeToScripts("java.util.ArrayList"),
+                    "The classes of a database must not be exposed to the scripts of another database");
+        } finally {
+            ScriptClassFilter.FILTER.exit(previous);
+        }
+    }
+
+    @Test
+    @Order(25)
+    public void testGraalJSBackend() {
+        String register = "call js.procedure.register($script, $name, $config)";
+        try(Session session = driver.session()) {
+            Assertions.assertEquals("Success", session.run(register, Map.of("name", "graalSum", "config", Map.of("backend", "graaljs"),
+                    "script", "function graalSum(params){ let s = 0; for (const x of params.values) { s += x; } return { sum: s, name: params['name'] }; }")).single().get("message").asString());
+            Map<String, Object> result = session.run(INVOKE_CALL, Map.of("name", "graalSum", "params", Map.of("values", List.of(1, 2, 3), "name", "abc")))
+                    .single().get("map").get("result").asMap();
+            Assertions.assertEquals(6L, result.get("sum"), "GraalJS scripts must see the params");
+            Assertions.assertEquals("abc", result.get("name"), "GraalJS results must be converted");
+
+            Assertions.assertEquals("Success", session.run(register, Map.of("name", "graalGraph", "config", Map.of("backend", "graaljs"),
+                    "script", "function graalGraph(params){ const ids = graph.createNodes('GraalBulk', [{ tags: [1, 2], score: [0.5, 1.5] }]); return ids.length; }"))
+                    .single().get("message").asString());
+            Assertions.assertEquals(1L, session.run(INVOKE_CALL, Map.of("name", "graalGraph", "params", Map.of())).single().get("map").get("result").asLong());
+            Record bulk = session.run("MATCH (n:GraalBulk) RETURN n.tags AS tags, n.score AS score").single();
+            Assertions.assertEquals(List.of(1L, 2L), bulk.get("tags").asList(), "GraalJS arrays of integers must be stored as long arrays");
+            Assertions.assertEquals(List.of(0.5, 1.5), bulk.get("score").asList(), "GraalJS arrays of numbers must be stored as double arrays");
+
+            Assertions.assertEquals("Success", session.run(register, Map.of("name", "graalParallel", "config", Map.of("backend", "graaljs"),
+                    "script", "function graalParallel(params){ return parallel.map([1, 2, 3], function(x) { return x * 2; }, {chunkSize: 1}); }"))
+                    .single().get("message").asString());
+            Assertions.assertEquals(List.of(2L, 4L, 6L), session.run(INVOKE_CALL, Map.of("name", "graalParallel", "params", Map.of()))
+                    .single().get("map").get("result").asList(), "parallel.map must take GraalJS arrays");
+
+            Assertions.assertEquals("Unknown backend 'rhino', installed are graaljs, nashorn", session.run(register, Map.of("name", "graalSum",
+                    "config", Map.of("backend", "rhino"), "script", "function graalSum(params){ return 1; }")).single().get("message").asString());
+
+            Assertions.assertEquals("Success", session.run(register, Map.of("name", "graalSpin", "config", Map.of("backend", "graaljs", "timeout", 200),
+                    "script", "function graalSpin(params){ let i = 0; while(true) { i++; } }")).single().get("message").asString());
+            Assertions.assertThrows(Exception.class, () -> session.run(INVOKE_CALL, Map.of("name", "graalSpin", "params", Map.of())).consume(),
+                    "Runaway GraalJS scripts must be aborted");
+        }
+    }
+
+    @Test
+    @Order(26)
+    public void testWarmUp() throws InterruptedException {
+        String register = "call js.procedure.register($script, $name, $config)";
+        try(Session session = driver.session()) {
+            Assertions.assertEquals("The warmup must be true or a list of sample parameter maps of plain values.", session.run(register, Map.of("name", "warmDeclared",
+                    "config", Map.of("warmup", "yes"), "script", "function warmDeclared(params){ return params.n * 2; }")).single().get("message").asString());
+            Assertions.assertEquals("Only functions and READ procedures can be warmed up.", session.run(register, Map.of("name", "warmWrite",
+                    "config", Map.of("warmup", true), "script", "function warmWrite(params){ txn.execute('CREATE (:Warm)'); return 1; }")).single().get("message").asString());
+            Assertions.assertEquals("Success", session.run(register, Map.of("name", "warmDeclared", "config", Map.of("mode", "READ", "warmup", List.of(Map.of("n", 1), Map.of("n", 2))),
+                    "script", "function warmDeclared(params){ return params.n * 2; }")).single().get("message").asString());
+            Assertions.assertTrue(warmUps(session, "warmDeclared") > 0, "Hot scripts must be warmed up with their declared samples");
+            Assertions.assertEquals(0L, session.run("call js.procedure.stats() yield publicName, invocations where publicName = 'warmDeclared' return invocations")
+                    .single().get("invocations").asLong(), "Warm-up invocations must not be counted as invocations");
+
+            Assertions.assertEquals("Success", session.run(register, Map.of("name", "warmCaptured", "config", Map.of("mode", "READ", "warmup", true),
+                    "script", "function warmCaptured(params){ return params.n + 1; }")).single().get("message").asString());
+            Assertions.assertEquals(6L, session.run(INVOKE_CALL, Map.of("name", "warmCaptured", "params", Map.of("n", 5))).single().get("map").get("result").asLong());
+            Assertions.assertEquals("Success", session.run(register, Map.of("name", "warmCaptured", "config", Map.of("mode", "READ", "warmup", true),
+                    "script", "function warmCaptured(params){ return params.n + 2; }")).single().get("message").asString());
+            Assertions.assertTrue(warmUps(session, "warmCaptured") > 0, "Hot scripts must be warmed up with captured samples after a re-register");
+            Assertions.assertEquals(7L, session.run(INVOKE_CALL, Map.of("name", "warmCaptured", "params", Map.of("n", 5))).single().get("map").get("result").asLong());
+        }
+    }
+
+    @Test
+    @Order(27)
+    public void testFunctionResultCache() {
+        String register = "call js.function.register($script, $name, $config)";
+        String invoke = "call js.function.invoke($name, $params)";
+        try(Session session = driver.session()) {
+            Assertions.assertEquals("Only the results of functions can be cached.", session.run("call js.procedure.register($script, $name, $config)",
+                    Map.of("name", "cachedProc", "config", Map.of("cache", true), "script", "function cachedProc(params){ return 1; }")).single().get("message").asString());
+            Assertions.assertEquals("The cache must be true or a map of a positive maxSize and a ttl in milliseconds.", session.run(register,
+                    Map.of("name", "cachedSum", "config", Map.of("cache", Map.of("maxSize", 0)), "script", "function cachedSum(params){ return 1; }")).single().get("message").asString());
+
+            Assertions.assertEquals("Success", session.run(register, Map.of("name", "cachedSum", "config", Map.of("cache", Map.of("maxSize", 10, "ttl", 60000)),
+                    "script", "function cachedSum(params){ return { sum: params.a + params.b }; }")).single().get("message").asString());
+            Assertions.assertEquals(3L, session.run(invoke, Map.of("name", "cachedSum", "params", Map.of("a", 1, "b", 2)))
+                    .single().get("map").get("result").get("sum").asLong());
+            Assertions.assertEquals(3L, session.run(invoke, Map.of("name", "cachedSum", "params", Map.of("b", 2.0, "a", 1)))
+                    .single().get("map").get("result").get("sum").asLong());
+            Assertions.assertEquals(3L, session.run("RETURN js.fn.cachedSum({a: 1, b: 2}).sum AS sum").single().get("sum").asLong());
+            Record stats = session.run("call js.procedure.stats() yield publicName, invocations, cacheHits, cacheMisses where publicName = 'cachedSum' return *").single();
+            Assertions.assertEquals(1L, stats.get("invocations").asLong(), "Cached results must not invoke the function");
+            Assertions.assertEquals(2L, stats.get("cacheHits").asLong(), "Parameters must be canonical");
+            Assertions.assertEquals(1L, stats.get("cacheMisses").asLong());
+
+            Assertions.assertEquals("Success", session.run(register, Map.of("name", "cachedSum", "config", Map.of("cache", Map.of("maxSize", 10, "ttl", 60000)),
+                    "script", "function cachedSum(params){ return { sum: params.a * params.b }; }")).single().get("message").asString());
+            Assertions.assertEquals(2L, session.run(invoke, Map.of("name", "cachedSum", "params", Map.of("a", 1, "b", 2)))
+                    .single().get("map").get("result").get("sum").asLong(), "Re-registering must invalidate the cached results");
+        }
+    }
+
+    @Test
+    @Order(28)
+    public void testProfile() {
+        String register = "call js.procedure.register($script, $name)";
+        String profile = "call js.procedure.profile($name, $params)";
+        try(Session session = driver.session()) {
+            session.run("UNWIND range(1, 10) AS i CREATE (:Profiled {i: i})").consume();
+            Assertions.assertEquals("Success", session.run(register, Map.of("name", "profiled",
+                    "script", "function profiled(params){ var total = 0;"
+                            + " for each (var row in cypher.execute('MATCH (n:Profiled) WHERE n.i <= $max RETURN n.i AS i', {max: params.max})) { total += row.i; }"
+                            + " var nodes = cypher.single('MATCH (n:Profiled) RETURN count(n) AS count', {}).count;"
+                            + " return [total, nodes]; }")).single().get("message").asString());
+
+            Record first = session.run(profile, Map.of("name", "profiled", "params", Map.of("max", 4))).single();
+            Assertions.assertEquals(List.of(10L, 10L), first.get("result").asList(Value::asLong));
+            Assertions.assertEquals(2L, first.get("dbCalls").asLong());
+            Assertions.assertEquals(5L, first.get("dbRows").asLong());
+            Assertions.assertEquals(2L, first.get("resultSize").asLong());
+            Assertions.assertTrue(first.get("pageHits").asLong() > 0, "Reading the nodes must hit pages");
+            Assertions.assertTrue(first.get("wallTime").asLong() >= first.get("executionTime").asLong());
+            Assertions.assertTrue(first.get("executionTime").asLong() >= first.get("dbTime").asLong());
+            Assertions.assertTrue(first.get("allocatedBytes").asLong() > 0);
+
+            Record second = session.run(profile, Map.of("name", "profiled", "params", Map.of("max", 2))).single();
+            Assertions.assertEquals(List.of(3L, 10L), second.get("result").asList(Value::asLong));
+            Assertions.assertFalse(second.get("compiled").asBoolean(), "A loaded script must not be compiled again");
+            Assertions.assertEquals(0L, second.get("compileTime").asLong());
+
+            Assertions.assertEquals("Success", session.run(register, Map.of("name", "profiledRows",
+                    "script", "function profiledRows(params){ var i = 0; return function() { return i < 3 ? i++ : null; }; }")).single().get("message").asString());
+            Record rows = session.run(profile, Map.of("name", "profiledRows", "params", Map.of())).single();
+            Assertions.assertEquals(List.of(0L, 1L, 2L), rows.get("result").asList(Value::asLong));
+            Assertions.assertEquals(3L, rows.get("resultSize").asLong());
+            Assertions.assertEquals(0L, rows.get("dbCalls").asLong());
+        }
+    }
+
+    @Test
+    @Order(29)
+    public void testParallelMap() {
+        String register = "call js.procedure.register($script, $name, $config)";
+        try(Session session = driver.session()) {
+            session.run("UNWIND range(1, 50) AS i CREATE (:Customer {id: i, score: i * 2})").consume();
+            Assertions.assertEquals("Success", session.run(register, Map.of("name", "scoreCustomers", "config", Map.of(),
+                    "script", "function scoreCustomers(params){ var ids = []; for (var i = 1; i <= 50; i++) { ids.push(i); }"
+                            + " var scores = parallel.map(ids, function(id, txn) {"
+                            + " return cypher.single('MATCH (c:Customer {id: $id}) RETURN c.score AS score', {id: id}).score; }, {chunkSize: 3, concurrency: 4});"
+                            + " var total = 0; for (var j = 0; j < scores.length; j++) { if (scores[j] != (j + 1) * 2) { throw new Error('Out of order at ' + j); } total += scores[j]; }"
+                            + " return total; }")).single().get("message").asString());
+            Assertions.assertEquals(2550L, session.run(INVOKE_CALL, Map.of("name", "scoreCustomers", "params", Map.of()))
+                    .single().get("map").get("result").asNumber().longValue());
+
+            Assertions.assertEquals("Success", session.run(register, Map.of("name", "parallelClosure", "config", Map.of(),
+                    "script", "function parallelClosure(params){ var factor = 3; return parallel.map([1, 2], function(x) { return x * factor; }); }"))
+                    .single().get("message").asString());
+            Exception closure = Assertions.assertThrows(Exception.class,
+                    () -> session.run(INVOKE_CALL, Map.of("name", "parallelClosure", "params", Map.of())).consume());
+            Assertions.assertTrue(closure.getMessage().contains("factor"), "Functions must not see the variables of the invocation");
+
+            Assertions.assertEquals("Success", session.run(register, Map.of("name", "parallelWrite", "config", Map.of(),
+                    "script", "function parallelWrite(params){ return parallel.map([1], function(x) { return cypher.single('CREATE (n:Parallel) RETURN n', {}); }); }"))
+                    .single().get("message").asString());
+            Assertions.assertThrows(Exception.class, () -> session.run(INVOKE_CALL, Map.of("name", "parallelWrite", "params", Map.of())).consume(),
+                    "Chunks must run in read transactions");
+
+            Assertions.assertEquals("Success", session.run(register, Map.of("name", "parallelSpin", "config", Map.of("timeout", 200),
+                    "script", "function parallelSpin(params){ return parallel.map([1, 2, 3, 4], function(x) { while(true) { x++; } }, {chunkSize: 1, concurrency: 4}); }"))
+                    .single().get("message").asString());
+            long start = System.currentTimeMillis();
+            Assertions.assertThrows(Exception.class, () -> session.run(INVOKE_CALL, Map.of("name", "parallelSpin", "params", Map.of())).consume());
+            Assertions.assertTrue(System.currentTimeMillis() - start < 10000, "Chunks must be aborted along with the invocation");
+            Assertions.assertEquals(2550L, session.run(INVOKE_CALL, Map.of("name", "scoreCustomers", "params", Map.of()))
+                    .single().get("map").get("result").asNumber().longValue(), "Engines must stay usable after an abort");
+        }
+    }
+
+    @Test
+    @Order(30)
+    public void testRolledBackRegistrationIsNotServed() {
+        String register = "call js.procedure.register($script, $name)";
+        Map<String, Object> invoke = Map.of("name", "rolledBack", "params", Map.of());
+        try(Session session = driver.session()) {
+            Assertions.assertEquals("Success", session.run(register, Map.of("name", "rolledBack",
+                    "script", "function rolledBack(params){ return 'committed'; }")).single().get("message").asString());
+            Assertions.assertEquals("committed", session.run(INVOKE_CALL, invoke).single().get("map").get("result").asString());
+            try(Transaction tx = session.beginTransaction()) {
+                Assertions.assertEquals("Success", tx.run(register, Map.of("name", "rolledBack",
+                        "script", "function rolledBack(params){ return 'rolled back'; }")).single().get("message").asString());
+                Assertions.assertEquals("committed", tx.run(INVOKE_CALL, invoke).single().get("map").get("result").asString(),
+                        "Uncommitted scripts must not reach the engines");
+                tx.rollback();
+            }
+            Assertions.assertEquals("committed", session.run(INVOKE_CALL, invoke).single().get("map").get("result").asString(),
+                    "A rolled back registration must not be served");
+        }
+    }
+
+    @Test
+    @Order(31)
+    public void testStrictModeSurvivesInstrumentation() {
+        String register = "call js.procedure.register($script, $name)";
+        Map<String, Object> params = new HashMap<>();
+        params.put("script", "function strictLoop(params){ 'use strict'; for (var i = 0; i < 1; i++) {} undeclaredGlobal = 1; return 1; }");
+        params.put("name", "strictLoop");
+        test(register, params, "message", "Success",  "Registration should be done");
+
+        try(Session session = driver.session()) {
+            Exception e = Assertions.assertThrows(Exception.class,
+                    () -> session.run(INVOKE_CALL, Map.of("name", "strictLoop", "params", Map.of())).consume(),
+                    "Strict mode must still reject assignments to undeclared variables");
+            Assertions.assertTrue(e.getMessage().contains("undeclaredGlobal"), e.getMessage());
+        }
+    }
+
+    @Test
+    @Order(32)
+    public void testNestedAndConcurrentInvocations() throws Exception {
+        String nested = "RETURN js.fn.nest({n: $n}) AS r";
+        try(Session session = driver.session()) {
+            Assertions.assertEquals("Success", session.run("call js.function.register($script, $name)", Map.of("name", "nest",
+                    "script", "function nest(params){ return params.n == 0 ? 0 : 1 + cypher.single('RETURN js.fn.nest({n: $n}) AS r', {n: params.n - 1}).r; }"))
+                    .single().get("message").asString());
+            Assertions.assertEquals(6L, session.run(nested, Map.of("n", 6)).single().get("r").asNumber().longValue(),
+                    "Invocations nested deeper than the pool must get the engine of their transaction back");
+            Assertions.assertEquals("Success", session.run("call js.procedure.register($script, $name, $config)", Map.of("name", "heldRows",
+                    "config", Map.of("mode", "READ", "inputs", List.of("n :: INTEGER"), "outputs", List.of("value :: INTEGER")),
+                    "script", "function heldRows(params){ var i = 0; return function() { return i < 100000 ? { value: i++ } : null; }; }"))
+                    .single().get("message").asString());
+        }
+
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                results.add(clients.submit(() -> {
+                    try(Session session = driver.session()) {
+                        return session.run(nested, Map.of("n", 3)).single().get("r").asNumber().longValue();
+                    }
+                }));
+            }
+            for (Future<Long> result : results) {
+                Assertions.assertEquals(3L, result.get(60, TimeUnit.SECONDS), "Concurrent sessions must share the pool");
+            }
+        } finally {
+            clients.shutdown();
+        }
+
+        // Open streams hold their engines until they are closed, calls within their transactions reuse them.
+        List<Session> holders = new ArrayList<>();
+        try {
+            for (int i = 0; i < 4; i++) {
+                Session holder = driver.session(SessionConfig.builder().withFetchSize(10).build());
+                holders.add(holder);
+                Record row = holder.beginTransaction().run("CALL js.proc.heldRows(0) YIELD value RETURN value, js.fn.nest({n: 2}) AS r").next();
+                Assertions.assertEquals(2L, row.get("r").asNumber().longValue());
+            }
+            try(Session session = driver.session()) {
+                long start = System.currentTimeMillis();
+                Exception exhausted = Assertions.assertThrows(Exception.class, () -> session.run(nested, Map.of("n", 0)).consume());
+                Assertions.assertTrue(exhausted.getMessage().contains("engine pool is exhausted"), exhausted.getMessage());
+                Assertions.assertTrue(System.currentTimeMillis() - start < 30000, "Waiting for an engine must time out");
+            }
+        } finally {
+            holders.forEach(Session::close);
+        }
+        try(Session session = driver.session()) {
+            Assertions.assertEquals(1L, session.run(nested, Map.of("n", 1)).single().get("r").asNumber().longValue(),
+                    "Closed streams must hand their engines back");
+        }
+    }
+
+    private long warmUps(Session session, String publicName) throws InterruptedException {
+        long warmUps = 0;
+        for (int i = 0; i < 100 && warmUps == 0; i++) {
+            Thread.sleep(100);
+            List<Record> stats = session.run("call js.procedure.stats() yield publicName, warmUps where publicName = $name return warmUps",
+                    Map.of("name", publicName)).list();
+            warmUps = stats.isEmpty() ? 0 : stats.get(0).get("warmUps").asLong();
+        }
+        return warmUps;
+    }
+}